@@ -0,0 +1,137 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+
+/**
+ * Runs a whole query set concurrently against one shared {@link IndexSearcher}. Queries are spread over a
+ * pool of query threads, each with its own {@link QueryParser}, while the searcher itself searches the
+ * segments of the index in parallel on a second pool. Results are always returned in query order.
+ */
+public class BatchSearcher implements Closeable {
+
+    /**
+     * Work done for a single parsed query on one of the query threads
+     */
+    public interface QueryTask<T> {
+        T run(int index, Query query, IndexSearcher searcher) throws IOException;
+    }
+
+    private final IndexSearcher searcher;
+    private final ExecutorService queryExecutor;
+    private final ExecutorService segmentExecutor;
+    private final ThreadLocal<QueryParser> parsers;
+    private QueryResultCache cache;
+
+    /**
+     * @param reader : The index to search
+     * @param similarity : The similarity of the shared searcher
+     * @param analyzer : The analyzer for the query parsers, analyzers keep their token streams per thread
+     * @param field : The default field of the query parsers
+     * @param threads : Number of query threads, the same number is used for the segment searches
+     */
+    public BatchSearcher(IndexReader reader, Similarity similarity, Analyzer analyzer, String field, int threads) {
+        // Query and segment tasks use separate pools, a query thread blocks until its segment tasks finish
+        this.queryExecutor = Executors.newFixedThreadPool(threads);
+        this.segmentExecutor = Executors.newFixedThreadPool(threads);
+        this.searcher = new IndexSearcher(reader, segmentExecutor);
+        this.searcher.setSimilarity(similarity);
+        this.parsers = ThreadLocal.withInitial(() -> new QueryParser(field, analyzer));
+    }
+
+    public IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    /**
+     * @param cache : Results of {@link #search(String[], int)} are looked up in and added to this cache, null disables it
+     */
+    public void setCache(QueryResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**          -------------------- search function --------------------
+     *
+     * @param queries : The query strings to parse and search
+     * @param noDocs : Number of hits per query
+     * @return : The TopDocs of every query in the order of the queries, null for queries that failed to parse
+     */
+    public TopDocs[] search(String[] queries, int noDocs) throws IOException {
+        QueryTask<TopDocs> task = (index, query, indexSearcher) -> {
+            long start = Metrics.start();
+            TopDocs hits = (cache == null) ? indexSearcher.search(query, noDocs)
+                    : cache.get(indexSearcher, query, noDocs, () -> indexSearcher.search(query, noDocs));
+            Metrics.stop(Metrics.Stage.SEARCH, start);
+            return hits;
+        };
+        List<TopDocs> results = search(queries, task);
+        return results.toArray(new TopDocs[0]);
+    }
+
+    /**          -------------------- search function --------------------
+     *
+     * @param queries : The query strings to parse
+     * @param task : Work to run for every parsed query, e.g. search plus rerank
+     * @return : The result of the task for every query in the order of the queries, null for queries that
+     *          failed to parse
+     */
+    public <T> List<T> search(String[] queries, QueryTask<T> task) throws IOException {
+        long start = System.nanoTime();
+        List<Future<T>> futures = new ArrayList<>(queries.length);
+        for (int i = 0; i < queries.length; i++) {
+            final int index = i;
+            futures.add(queryExecutor.submit(() -> {
+                long parseStart = Metrics.start();
+                Query query;
+                try {
+                    query = parsers.get().parse(queries[index]);
+                } catch (ParseException e) {
+                    System.err.println("Skipping query " + (index + 1) + ", it does not parse: " + queries[index] + " (" + e.getMessage() + ")");
+                    return null;
+                }
+                Metrics.stop(Metrics.Stage.QUERY_PARSE, parseStart);
+                T result = task.run(index, query, searcher);
+                Metrics.histogram("query_latency").record(System.nanoTime() - parseStart);
+                return result;
+            }));
+        }
+
+        List<T> results = new ArrayList<>(queries.length);
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Query failed", e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.println("BatchSearcher: ran " + queries.length + " queries in " + millis + " ms ("
+                + (queries.length * 1000L / millis) + " queries/sec)");
+        return results;
+    }
+
+    @Override
+    public void close() {
+        queryExecutor.shutdownNow();
+        segmentExecutor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,180 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming reader over a "///" separated corpus file such as documents.txt.
+ * Plain files are memory-mapped window by window, files ending in ".gz" are read through a
+ * {@link GZIPInputStream} in fixed size chunks. Record boundaries are found by scanning the raw bytes,
+ * so only the record currently being handed out lives on the heap.
+ */
+public class CorpusReader implements Iterator<DocTuple>, Iterable<DocTuple>, Closeable {
+
+    // Largest region mapped at once, mappings are limited to Integer.MAX_VALUE bytes anyway
+    private final static long MAP_WINDOW = 64L * 1024 * 1024;
+    private final static int STREAM_CHUNK = 64 * 1024;
+    private final static byte DELIMITER = '/';
+    private final static int DELIMITER_LENGTH = 3;
+
+    private final Function<String, DocTuple> parser;
+    private final Charset charset;
+
+    private final FileChannel channel;
+    private final InputStream stream;
+    private final byte[] chunk;
+    private long mapped;
+    private ByteBuffer window;
+
+    // Bytes of the record under construction, reused between records
+    private byte[] record = new byte[8192];
+    private int recordLength;
+    private int pendingSlashes;
+    private boolean eof;
+    private String next;
+
+    /**
+     * @param file : Path of the corpus, gzip compressed when the name ends with ".gz"
+     * @param parser : Turns a raw record into a DocTuple, e.g. Phase1::parseDocument
+     */
+    public CorpusReader(String file, Function<String, DocTuple> parser) throws IOException {
+        this(Paths.get(file), parser, StandardCharsets.UTF_8);
+    }
+
+    public CorpusReader(Path file, Function<String, DocTuple> parser, Charset charset) throws IOException {
+        this.parser = parser;
+        this.charset = charset;
+        if (file.getFileName().toString().endsWith(".gz")) {
+            this.channel = null;
+            this.stream = new GZIPInputStream(new FileInputStream(file.toFile()), STREAM_CHUNK);
+            this.chunk = new byte[STREAM_CHUNK];
+        } else {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.stream = null;
+            this.chunk = null;
+        }
+        this.window = ByteBuffer.allocate(0);
+    }
+
+    /**          -------------------- nextRecord function --------------------
+     *
+     * @return : The next raw record of the corpus, exactly as String.split("///") would return it,
+     *          or null when the corpus is exhausted. Blank records (e.g. the newline after the last "///")
+     *          are skipped.
+     */
+    public String nextRecord() throws IOException {
+        long start = Metrics.start();
+        try {
+            while (true) {
+                String raw = readRecord();
+                if (raw == null) return null;
+                if (!raw.trim().isEmpty()) return raw;
+            }
+        } finally {
+            Metrics.stop(Metrics.Stage.READ, start);
+        }
+    }
+
+    private String readRecord() throws IOException {
+        if (eof) return null;
+        recordLength = 0;
+        while (true) {
+            if (!window.hasRemaining() && !fill()) {
+                // Whatever is left after the last delimiter is the final record
+                eof = true;
+                appendSlashes();
+                return recordLength == 0 ? null : decode();
+            }
+            byte b = window.get();
+            if (b == DELIMITER) {
+                if (++pendingSlashes == DELIMITER_LENGTH) {
+                    pendingSlashes = 0;
+                    return decode();
+                }
+            } else {
+                appendSlashes();
+                append(b);
+            }
+        }
+    }
+
+    // Loads the next mapped window or decompressed chunk, returns false at the end of the input
+    private boolean fill() throws IOException {
+        if (channel != null) {
+            long size = channel.size();
+            if (mapped >= size) return false;
+            long length = Math.min(MAP_WINDOW, size - mapped);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+            mapped += length;
+            return true;
+        }
+        int read = stream.read(chunk);
+        if (read < 0) return false;
+        window = ByteBuffer.wrap(chunk, 0, read);
+        return true;
+    }
+
+    // Slashes that turned out not to be part of a "///" belong to the record
+    private void appendSlashes() {
+        for (; pendingSlashes > 0; pendingSlashes--) {
+            append(DELIMITER);
+        }
+    }
+
+    private void append(byte b) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length << 1);
+        }
+        record[recordLength++] = b;
+    }
+
+    private String decode() {
+        return new String(record, 0, recordLength, charset);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = nextRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public DocTuple next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String raw = next;
+        next = null;
+        long start = Metrics.start();
+        DocTuple document = parser.apply(raw);
+        Metrics.stop(Metrics.Stage.PARSE, start);
+        return document;
+    }
+
+    @Override
+    public Iterator<DocTuple> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+        if (stream != null) stream.close();
+    }
+
+}
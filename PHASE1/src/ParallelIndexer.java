@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Bounded producer/consumer indexing pipeline. The calling thread reads raw records from a {@link CorpusReader}
+ * and worker threads parse them into DocTuples, build the Lucene documents and add them to the index concurrently.
+ */
+public class ParallelIndexer {
+
+    /**
+     * Adds a single parsed document to a writer, e.g. Phase1::addDoc
+     */
+    public interface DocumentSink {
+        void add(IndexWriter writer, DocTuple dc) throws IOException;
+    }
+
+    // Marks the end of the input for one worker
+    private final static String POISON = new String("");
+
+    private final int threads;
+    private final int queueCapacity;
+    private final Function<String, DocTuple> parser;
+    private final DocumentSink sink;
+
+    /**
+     * @param threads : Number of worker threads
+     * @param queueCapacity : Maximum number of records waiting between the reader and the workers
+     * @param parser : Turns a raw record into a DocTuple
+     * @param sink : Adds the DocTuple to the IndexWriter of the worker
+     */
+    public ParallelIndexer(int threads, int queueCapacity, Function<String, DocTuple> parser, DocumentSink sink) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1, got " + threads);
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.parser = parser;
+        this.sink = sink;
+    }
+
+    /**          -------------------- index function --------------------
+     * All workers add to the same (thread safe) IndexWriter.
+     *
+     * @param corpus : The records to index
+     * @param writer : The shared IndexWriter
+     * @return : The number of indexed documents
+     */
+    public long index(CorpusReader corpus, IndexWriter writer) throws IOException {
+        List<IndexWriter> writers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            writers.add(writer);
+        }
+        return run(corpus, writers, "shared writer");
+    }
+
+    /**          -------------------- indexPerThread function --------------------
+     * Every worker fills a private index in a temporary directory, which are then merged into the target
+     * writer with addIndexes. This avoids any contention on the shared writer during the load.
+     *
+     * @param corpus : The records to index
+     * @param writer : The target IndexWriter
+     * @param configs : Creates the IndexWriterConfig (analyzer, similarity) of each private writer
+     * @return : The number of indexed documents
+     */
+    public long indexPerThread(CorpusReader corpus, IndexWriter writer, Supplier<IndexWriterConfig> configs) throws IOException {
+        Path tmp = Files.createTempDirectory("index-workers");
+        List<Directory> directories = new ArrayList<>();
+        List<IndexWriter> writers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                Directory directory = DirectoryFactory.open(tmp.resolve("worker" + i));
+                directories.add(directory);
+                writers.add(new IndexWriter(directory, configs.get().setOpenMode(IndexWriterConfig.OpenMode.CREATE)));
+            }
+            long count = run(corpus, writers, "per-thread writers");
+            IOUtils.close(writers);
+            writers.clear();
+
+            long start = System.nanoTime();
+            writer.addIndexes(directories.toArray(new Directory[0]));
+            System.out.println("ParallelIndexer: addIndexes of " + threads + " worker indexes took "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            return count;
+        } finally {
+            IOUtils.closeWhileHandlingException(writers);
+            IOUtils.close(directories);
+            IOUtils.rm(tmp);
+        }
+    }
+
+    private long run(CorpusReader corpus, List<IndexWriter> writers, String mode) throws IOException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong count = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            for (IndexWriter writer : writers) {
+                executor.execute(() -> {
+                    try {
+                        String record;
+                        while ((record = queue.take()) != POISON) {
+                            long parseStart = Metrics.start();
+                            DocTuple document = parser.apply(record);
+                            Metrics.stop(Metrics.Stage.PARSE, parseStart);
+                            sink.add(writer, document);
+                            count.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                });
+            }
+
+            // Produce on the calling thread until the corpus is exhausted or a worker failed
+            String record;
+            while ((record = corpus.nextRecord()) != null) {
+                if (!put(queue, record, failure)) break;
+            }
+            for (int i = 0; i < threads; i++) {
+                if (!put(queue, POISON, failure)) break;
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (failure.get() != null) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Indexing worker failed", t);
+        }
+
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.println("ParallelIndexer: indexed " + count.get() + " documents in " + millis + " ms with "
+                + threads + " threads (" + mode + "), " + (count.get() * 1000 / millis) + " docs/sec");
+        return count.get();
+    }
+
+    // Blocks until the record is queued, gives up once a worker has failed so the reader never waits forever
+    private static boolean put(BlockingQueue<String> queue, String record, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (failure.get() == null) {
+            if (queue.offer(record, 100, TimeUnit.MILLISECONDS)) return true;
+        }
+        return false;
+    }
+
+}
@@ -6,73 +6,125 @@ import java.util.function.UnaryOperator;
 
 // tested for lucene 7.7.3 and jdk13
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
 
 public class Phase1 {
 
     private final static String READ_DIR = "IR2024\\documents.txt";
     private final static String QUERIES_DIR = "IR2024\\queries.txt";
     private final static String RESULTS_DIR = "IR2024\\trec_eval\\myResults.txt";
+    // Number of indexing threads (-DindexThreads=N), 1 keeps the single threaded loop
+    private final static int INDEX_THREADS = Integer.getInteger("indexThreads", 1);
+    // Workers fill private indexes merged with addIndexes instead of sharing one IndexWriter (-DperThreadWriters=true)
+    private final static boolean PER_THREAD_WRITERS = Boolean.getBoolean("perThreadWriters");
+    // Number of query threads of the BatchSearcher (-DsearchThreads=N)
+    private final static int SEARCH_THREADS = Integer.getInteger("searchThreads", Runtime.getRuntime().availableProcessors());
+    // Only index the added, changed and removed documents of an existing index (-Dincremental=true)
+    private final static boolean INCREMENTAL = Boolean.getBoolean("incremental");
+    // Directory of the analyzed token streams (-DtokenCache=dir), shared between runs and phases, unset disables it
+    private final static String TOKEN_CACHE = System.getProperty("tokenCache");
+    // Settings of the EnglishAnalyzer the token cache is keyed on, must change whenever the analyzer does
+    private final static String ANALYZER_CONFIG = "EnglishAnalyzer(default stopwords, no stem exclusions, PorterStemFilter)";
+    // Maximum number of cached query results (-DqueryCacheSize=N), off by default since a single run never repeats a query
+    private final static int QUERY_CACHE_SIZE = Integer.getInteger("queryCacheSize", 0);
 
     public static void main(String[] args) throws IOException, ParseException {
+        // Progress lines are written to the console on a background thread
+        AsyncStdout.install();
 
         //  Specify the analyzer and the similarity
         Analyzer analyzer = new EnglishAnalyzer();
         Similarity similarity = new ClassicSimilarity();
         // Create the index
         String indexLocation = ("index");
-        Directory index = FSDirectory.open(Paths.get(indexLocation));
+        Directory index = DirectoryFactory.open(Paths.get(indexLocation));
 
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setSimilarity(similarity);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setOpenMode(INCREMENTAL ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        // Larger RAM buffer, no compound files and tuned merges with -DbulkLoad
+        BulkLoad.configure(config);
 
         IndexWriter writer = new IndexWriter(index, config);
 
-        // Read the txt file
-        String docs_file = ReadEntireFileIntoAString(READ_DIR);
-        // Split the documents of the txt file          ---- DOCUMENTS ----
-        String[] docs = txtSplitter(docs_file, "///");
-
-        for (int i=0; i < docs.length; i++) {
-            // Parse each document and return it as a DocTuple object
-            DocTuple document = parseDocument(docs[i]);
-            addDoc(writer, document);
+        // Stream the documents of the txt file          ---- DOCUMENTS ----
+        try (CorpusReader corpus = new CorpusReader(READ_DIR, Phase1::parseDocument)) {
+            if (INCREMENTAL) {
+                // Compare the content hashes with the existing index and only touch what changed
+                new IncrementalIndexer(Phase1::buildDocument).update(corpus, writer, analyzer.getClass().getName() + "/" + similarity);
+            } else if (INDEX_THREADS > 1) {
+                // Parse and add the documents on a pool of worker threads
+                ParallelIndexer indexer = new ParallelIndexer(INDEX_THREADS, INDEX_THREADS * 64, Phase1::parseDocument, Phase1::addDoc);
+                if (PER_THREAD_WRITERS) {
+                    indexer.indexPerThread(corpus, writer,
+                            () -> BulkLoad.configure(new IndexWriterConfig(analyzer).setSimilarity(similarity), INDEX_THREADS));
+                } else {
+                    indexer.index(corpus, writer);
+                }
+            } else if (TOKEN_CACHE != null) {
+                // Analyze every document only once, later runs replay the recorded tokens
+                try (TokenStreamCache tokens = TokenStreamCache.open(Paths.get(TOKEN_CACHE), analyzer, ANALYZER_CONFIG, "content", Paths.get(READ_DIR))) {
+                    for (DocTuple document : corpus) {
+                        addDoc(writer, buildDocument(document, tokens.next(document.getText())));
+                    }
+                    tokens.commit();
+                }
+            } else {
+                // Each record is parsed into a DocTuple object as it is read
+                for (DocTuple document : corpus) {
+                    addDoc(writer, document);
+                }
+            }
         }
+        long commitStart = Metrics.start();
+        BulkLoad.finish(writer);
         writer.close();
+        Metrics.stop(Metrics.Stage.COMMIT, commitStart);
+        BulkLoad.report(index);
+        DirectoryFactory.report(index);
 
         // Search for queries
         String queries_file = ReadEntireFileIntoAString(QUERIES_DIR);               // ---- QUERIES ----
         String[] queries = editQueries(txtSplitter(queries_file, "///"), "Q\\d+", "");
 
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexLocation)));
-        IndexSearcher searcher = new IndexSearcher(reader);
-        searcher.setSimilarity(new ClassicSimilarity());
-
-        String qCode = "";
-        // Create buffered writer for the myResults file
-        BufferedWriter fileWriter = new BufferedWriter(new FileWriter(RESULTS_DIR));
-        for (int i=0; i < queries.length; i++) {
-            int temp = i + 1;
-            qCode = (i < 9) ? "Q0" + temp : "Q" + temp;
+        IndexReader reader = DirectoryReader.open(index);
+
+        // Create the run writer for the myResults file, codes are read from doc values
+        TrecRunWriter runWriter = new TrecRunWriter(new BufferedWriter(new FileWriter(RESULTS_DIR)), "myIRMethod");
+        try (BatchSearcher batchSearcher = new BatchSearcher(reader, new ClassicSimilarity(), analyzer, "content", SEARCH_THREADS)) {
+            QueryResultCache cache = (QUERY_CACHE_SIZE > 0) ? new QueryResultCache(QUERY_CACHE_SIZE) : null;
+            batchSearcher.setCache(cache);
+            // Run the queries concurrently, the hits come back in the order of the queries
+            TopDocs[] results = batchSearcher.search(queries, 50);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            for (int i=0; i < queries.length; i++) {
+                int temp = i + 1;
+                String qCode = (i < 9) ? "Q0" + temp : "Q" + temp;
 
-            search(analyzer, searcher, "content", queries[i], qCode,50, fileWriter);
+                if (results[i] != null) {
+                    runWriter.write(qCode, reader, results[i].scoreDocs);
+                }
+            }
         }
-        fileWriter.close();
+        runWriter.close();
         reader.close();
+        index.close();
 
-
+        Metrics.export();
     }
 
     /**          -------------------- parseDocument function --------------------
@@ -103,57 +155,50 @@ public class Phase1 {
      * @throws IOException
      */
     private static void addDoc(IndexWriter writer, DocTuple dc) throws IOException {
-        Document doc = new Document();
-        // Create fields
-        TextField code = new TextField("code", dc.getCode(), Field.Store.YES);
-
-        TextField content = new TextField("content", dc.getText(), Field.Store.NO);
+        addDoc(writer, buildDocument(dc));
+    }
 
-        // Add fields to document
-        doc.add(code);
-        doc.add(content);
+    private static void addDoc(IndexWriter writer, Document doc) throws IOException {
         // Add document to the index
+        long start = Metrics.start();
         writer.addDocument(doc);
+        Metrics.stop(Metrics.Stage.INDEX, start);
+        Metrics.count("docs");
     }
 
-    /**          -------------------- search function --------------------
+    /**         -------------------- buildDocument function --------------------
      *
-     * @param analyzer : The analyzer for our index
-     * @param indexSearcher : Our index searcher
-     * @param field : The field of our index to run the query on
-     * @param qCode : The code of our query
-     * @param searchQuery : The query we want to search for results
-     * @param filewriter : The writer for our myResults.txt file
+     * @param dc : A DocTuple object that helps us get the document code and its content to define the fields
+     *          of the document
+     * @return : The Lucene document of the DocTuple
      */
-    private static void search(Analyzer analyzer, IndexSearcher indexSearcher, String field, String searchQuery, String qCode,
-                                int noDocs, BufferedWriter filewriter) {
-
-        try{
-            // create a query parser on the field "contents"
-            QueryParser parser = new QueryParser(field, analyzer);
-
-            // parse the query according to QueryParser
-            Query query = parser.parse(searchQuery);
-            System.out.println("Searching for: " + query.toString(field));
-
-            // search the index using the indexSearcher
-            TopDocs results = indexSearcher.search(query, noDocs);
-            ScoreDoc[] hits = results.scoreDocs;
-
-            // Write each element of the data array to the file
-            for (int i=0; i<hits.length; i++) {
-                Document hitDoc = indexSearcher.doc(hits[i].doc);
-                String line = qCode + " 0 " + hitDoc.get("code") + " 0 " + hits[i].score + " myIRMethod";
-                filewriter.write(line);
-                filewriter.newLine(); // Add a newline after each line if needed
-            }
-            System.out.println("Successfull search and write!");
+    private static Document buildDocument(DocTuple dc) {
+        return buildDocument(dc, null);
+    }
 
+    /**         -------------------- buildDocument function --------------------
+     *
+     * @param dc : A DocTuple object that helps us get the document code and its content to define the fields
+     *          of the document
+     * @param tokens : The already analyzed content, e.g. replayed from the TokenStreamCache, null to analyze
+     *          the text of the DocTuple
+     * @return : The Lucene document of the DocTuple
+     */
+    private static Document buildDocument(DocTuple dc, TokenStream tokens) {
+        Document doc = new Document();
+        // Create fields
+        TextField code = new TextField("code", dc.getCode(), Field.Store.YES);
 
-        } catch(Exception e){
-            e.printStackTrace();
-        }
+        TextField content = (tokens == null) ? new TextField("content", dc.getText(), Field.Store.NO)
+                : new TextField("content", tokens);
+        // The code again as doc values, so writing results needs no stored field access
+        SortedDocValuesField codeValue = new SortedDocValuesField("code", new BytesRef(dc.getCode()));
 
+        // Add fields to document
+        doc.add(code);
+        doc.add(content);
+        doc.add(codeValue);
+        return doc;
     }
 
     /**          -------------------- ReadEntireFileIntoAString function --------------------
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+
+/**
+ * Least recently used cache of ranked results. Entries are keyed by the rewritten query, the class and
+ * parameters of the similarity, the number of hits and the cache key of the reader, so a reopened reader never
+ * sees results of an older one, and the entries of a reader are dropped as soon as it is closed.
+ * The cached TopDocs are shared between callers and must not be modified.
+ */
+public class QueryResultCache {
+
+    /**
+     * Computes the results on a cache miss
+     */
+    public interface Loader {
+        TopDocs load() throws IOException;
+    }
+
+    private final static class Key {
+        private final IndexReader.CacheKey reader;
+        private final String similarity;
+        private final Query query;
+        private final int topN;
+        private final int hash;
+
+        private Key(IndexReader.CacheKey reader, String similarity, Query query, int topN) {
+            this.reader = reader;
+            this.similarity = similarity;
+            this.query = query;
+            this.topN = topN;
+            this.hash = Objects.hash(reader, similarity, query, topN);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return reader == other.reader && topN == other.topN && similarity.equals(other.similarity) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<Key, TopDocs> entries;
+    // Readers whose closed listener is registered
+    private final Set<IndexReader.CacheKey> readers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries : Maximum number of cached results, the least recently used ones are evicted first
+     */
+    public QueryResultCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1, got " + maxEntries);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, TopDocs>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TopDocs> eldest) {
+                return size() > QueryResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**          -------------------- get function --------------------
+     *
+     * @param searcher : The searcher the query runs on, its reader and similarity are part of the key
+     * @param query : The parsed query
+     * @param topN : Number of hits of the results
+     * @param loader : Searches the index on a miss
+     * @return : The cached or freshly loaded results
+     */
+    public TopDocs get(IndexSearcher searcher, Query query, int topN, Loader loader) throws IOException {
+        IndexReader.CacheHelper helper = searcher.getIndexReader().getReaderCacheHelper();
+        if (helper == null) {
+            // The reader can not tell when it changes, nothing is cached for it
+            misses.incrementAndGet();
+            Metrics.count("cache_misses");
+            return loader.load();
+        }
+        Similarity similarity = searcher.getSimilarity(true);
+        Key key = new Key(helper.getKey(), similarity.getClass().getName() + "/" + similarity, searcher.rewrite(query), topN);
+
+        synchronized (this) {
+            TopDocs cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                Metrics.count("cache_hits");
+                return cached;
+            }
+            if (readers.add(key.reader)) {
+                helper.addClosedListener(this::invalidate);
+            }
+        }
+        // Searched outside of the lock, concurrent misses on the same key may both load
+        misses.incrementAndGet();
+        Metrics.count("cache_misses");
+        TopDocs results = loader.load();
+        synchronized (this) {
+            entries.put(key, results);
+        }
+        return results;
+    }
+
+    /**
+     * Drops all entries of a reader, called when the reader is closed
+     */
+    public synchronized void invalidate(IndexReader.CacheKey reader) {
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().reader == reader) keys.remove();
+        }
+        readers.remove(reader);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits(), misses = misses();
+        long total = Math.max(1, hits + misses);
+        return "QueryResultCache: " + hits + " hits, " + misses + " misses (" + (100 * hits / total) + "% hit rate), "
+                + size() + "/" + maxEntries + " entries";
+    }
+
+}
@@ -0,0 +1,317 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Version;
+
+/**
+ * Persistent cache of the analyzed token streams of a corpus. The first run analyzes every document once,
+ * records its terms, position increments and offsets into a binary file and indexes from the recording;
+ * later runs with the same analyzer configuration, field and corpus replay the file instead of analyzing again.
+ * Documents must be requested in corpus order.
+ *
+ * File layout: a codec header and the cache key, then per document the token count + 1, the final offset
+ * and position increment, and per token the term ordinal (a new term is followed by its characters), the
+ * position increment, the start offset delta and the token length, all as vints. A 0 and a codec footer
+ * end the file.
+ */
+public class TokenStreamCache implements Closeable {
+
+    private final static String CODEC = "TokenStreamCache";
+    private final static int FORMAT = 1;
+
+    private final Analyzer analyzer;
+    private final String field;
+    private final Directory directory;
+    private final String name;
+    private final IndexInput in;
+    private final IndexOutput out;
+    private final ReplayTokenStream replay = new ReplayTokenStream();
+
+    // Ordinal of every recorded term, and the terms by ordinal while replaying
+    private final Map<String, Integer> ords = new HashMap<>();
+    private final List<char[]> terms = new ArrayList<>();
+    private long documents;
+    private boolean committed;
+
+    private TokenStreamCache(Analyzer analyzer, String field, Directory directory, String name, String key) throws IOException {
+        this.analyzer = analyzer;
+        this.field = field;
+        this.directory = directory;
+        this.name = name;
+        if (Arrays.asList(directory.listAll()).contains(name)) {
+            // Memory mapped by FSDirectory, vints are decoded straight from the mapped pages
+            this.in = directory.openInput(name, IOContext.READONCE);
+            this.out = null;
+            CodecUtil.checkHeader(in, CODEC, FORMAT, FORMAT);
+            if (!key.equals(in.readString())) {
+                in.close();
+                throw new IOException("Token cache " + name + " was written for another corpus");
+            }
+        } else {
+            // Recorded into a temporary file, renamed once the whole corpus was recorded
+            this.out = directory.createTempOutput("tokens", "tmp", IOContext.DEFAULT);
+            this.in = null;
+            CodecUtil.writeHeader(out, CODEC, FORMAT);
+            out.writeString(key);
+        }
+    }
+
+    /**          -------------------- open function --------------------
+     *
+     * @param dir : Directory of the cache files, may be shared between the phases
+     * @param analyzer : The analyzer of the field
+     * @param analyzerConfig : The settings of the analyzer, e.g. its stopwords and stemmer, part of the cache key
+     * @param field : The analyzed field
+     * @param corpus : The corpus file, its content hash is part of the cache key
+     * @return : A cache replaying an existing recording, or recording a new one
+     */
+    public static TokenStreamCache open(Path dir, Analyzer analyzer, String analyzerConfig, String field, Path corpus) throws IOException {
+        String key = analyzer.getClass().getName() + "/" + Version.LATEST + "/" + analyzerConfig + "/" + field + "/"
+                + hash(corpus);
+        String name = "tokens-" + hash(key.getBytes(StandardCharsets.UTF_8)) + ".bin";
+        Directory directory = FSDirectory.open(dir);
+        try {
+            TokenStreamCache cache = new TokenStreamCache(analyzer, field, directory, name, key);
+            System.out.println("TokenStreamCache: " + (cache.isReplaying() ? "replaying " : "recording ") + dir.resolve(name));
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            directory.close();
+            throw e;
+        }
+    }
+
+    public boolean isReplaying() {
+        return in != null;
+    }
+
+    /**          -------------------- next function --------------------
+     *
+     * @param text : The text of the next document, only analyzed while recording
+     * @return : The tokens of the next document. The stream is reused, it must be consumed before the next call
+     */
+    public TokenStream next(String text) throws IOException {
+        if (in != null) {
+            replay.read(in, terms);
+        } else {
+            long start = Metrics.start();
+            replay.record(analyzer.tokenStream(field, text));
+            Metrics.stop(Metrics.Stage.ANALYZE, start);
+            replay.write(out, ords);
+        }
+        documents++;
+        return replay;
+    }
+
+    /**
+     * Marks the recording as complete, only then it becomes the cache file on close
+     */
+    public void commit() throws IOException {
+        if (out != null) {
+            out.writeVInt(0);
+            CodecUtil.writeFooter(out);
+        } else if (in.readVInt() != 0) {
+            throw new IOException("Token cache " + name + " has more documents than the " + documents + " replayed");
+        }
+        committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                out.close();
+                if (committed) {
+                    directory.rename(out.getName(), name);
+                    directory.syncMetaData();
+                } else {
+                    directory.deleteFile(out.getName());
+                }
+            } else {
+                in.close();
+            }
+        } finally {
+            directory.close();
+        }
+    }
+
+    private static String hash(Path corpus) throws IOException {
+        MessageDigest digest = sha1();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(corpus), digest)) {
+            byte[] buffer = new byte[1 << 16];
+            while (input.read(buffer) != -1) {
+                // the digest sees every byte that is read
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hash(byte[] bytes) {
+        return hex(sha1().digest(bytes));
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Token stream over the tokens of one recorded document
+     */
+    private final static class ReplayTokenStream extends TokenStream {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        private char[][] tokens = new char[64][];
+        private int[] posIncs = new int[64];
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private int count;
+        private int finalOffset;
+        private int finalPosInc;
+        private int upto;
+
+        // Copies the tokens of an analyzed document
+        void record(TokenStream source) throws IOException {
+            CharTermAttribute term = source.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = source.addAttribute(PositionIncrementAttribute.class);
+            OffsetAttribute offset = source.addAttribute(OffsetAttribute.class);
+            count = 0;
+            try {
+                source.reset();
+                while (source.incrementToken()) {
+                    grow(count + 1);
+                    tokens[count] = ArrayUtil.copyOfSubArray(term.buffer(), 0, term.length());
+                    posIncs[count] = posInc.getPositionIncrement();
+                    starts[count] = offset.startOffset();
+                    ends[count] = offset.endOffset();
+                    count++;
+                }
+                source.end();
+                finalOffset = offset.endOffset();
+                finalPosInc = posInc.getPositionIncrement();
+            } finally {
+                source.close();
+            }
+        }
+
+        void write(DataOutput out, Map<String, Integer> ords) throws IOException {
+            out.writeVInt(count + 1);
+            out.writeVInt(finalOffset);
+            out.writeVInt(finalPosInc);
+            int lastStart = 0;
+            for (int i = 0; i < count; i++) {
+                String term = new String(tokens[i]);
+                Integer ord = ords.get(term);
+                if (ord == null) {
+                    ord = ords.size();
+                    ords.put(term, ord);
+                    out.writeVInt(ord);
+                    out.writeString(term);
+                } else {
+                    out.writeVInt(ord);
+                }
+                out.writeVInt(posIncs[i]);
+                out.writeVInt(starts[i] - lastStart);
+                out.writeVInt(ends[i] - starts[i]);
+                lastStart = starts[i];
+            }
+        }
+
+        void read(DataInput in, List<char[]> terms) throws IOException {
+            count = in.readVInt() - 1;
+            if (count < 0) {
+                throw new IOException("Token cache has fewer documents than the corpus");
+            }
+            finalOffset = in.readVInt();
+            finalPosInc = in.readVInt();
+            grow(count);
+            int lastStart = 0;
+            for (int i = 0; i < count; i++) {
+                int ord = in.readVInt();
+                if (ord == terms.size()) {
+                    terms.add(in.readString().toCharArray());
+                }
+                tokens[i] = terms.get(ord);
+                posIncs[i] = in.readVInt();
+                starts[i] = lastStart + in.readVInt();
+                ends[i] = starts[i] + in.readVInt();
+                lastStart = starts[i];
+            }
+        }
+
+        private void grow(int size) {
+            if (size > posIncs.length) {
+                int newSize = ArrayUtil.oversize(size, Integer.BYTES);
+                tokens = ArrayUtil.growExact(tokens, newSize);
+                posIncs = ArrayUtil.growExact(posIncs, newSize);
+                starts = ArrayUtil.growExact(starts, newSize);
+                ends = ArrayUtil.growExact(ends, newSize);
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            upto = 0;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (upto == count) return false;
+            clearAttributes();
+            termAtt.copyBuffer(tokens[upto], 0, tokens[upto].length);
+            posIncAtt.setPositionIncrement(posIncs[upto]);
+            offsetAtt.setOffset(starts[upto], ends[upto]);
+            upto++;
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            offsetAtt.setOffset(finalOffset, finalOffset);
+            // e.g. stop words removed at the end of the text
+            posIncAtt.setPositionIncrement(finalPosInc);
+        }
+    }
+
+}
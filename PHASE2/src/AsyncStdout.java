@@ -0,0 +1,155 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the writes to the console off the calling threads. System.out is replaced by a stream that hands
+ * every write to a daemon thread, so the progress lines of the indexing and search loops no longer wait for
+ * the terminal. The thread batches the writes and flushes the console whenever it runs out of work, so lines
+ * show up as soon as it is idle. A write or flush waits at most STDOUT_TIMEOUT_MS for the thread, and once
+ * the thread is gone the writes go straight to the console. Everything printed is written before the JVM exits.
+ */
+public final class AsyncStdout extends OutputStream {
+
+    // How long a write or flush waits for the console thread before failing (-DstdoutTimeoutMs=N)
+    private final static long STDOUT_TIMEOUT_MS = Long.getLong("stdoutTimeoutMs", 10000);
+
+    // Hands the drain thread an empty chunk to signal a flush
+    private final static byte[] FLUSH = new byte[0];
+
+    private final OutputStream target;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(1024);
+    private final Object flushed = new Object();
+    private long requested;
+    private long completed;
+    private volatile boolean dead;
+
+    private AsyncStdout(OutputStream target) {
+        this.target = target;
+        Thread drain = new Thread(this::drain, "async-stdout");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    /**          -------------------- install function --------------------
+     * Replaces System.out, calling it again has no effect
+     */
+    public static synchronized void install() {
+        if (System.out instanceof Installed) return;
+        AsyncStdout out = new AsyncStdout(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        PrintStream stream = new Installed(out);
+        System.setOut(stream);
+        Runtime.getRuntime().addShutdownHook(new Thread(stream::flush, "async-stdout-flush"));
+    }
+
+    // Marks the installed stream
+    private final static class Installed extends PrintStream {
+        private Installed(OutputStream out) {
+            super(out, false);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return;
+        put(Arrays.copyOfRange(b, off, off + len));
+    }
+
+    /**
+     * Waits until everything written so far reached the console, at most STDOUT_TIMEOUT_MS
+     */
+    @Override
+    public void flush() throws IOException {
+        long ticket;
+        // Tickets and flush markers enter the queue in the same order
+        synchronized (this) {
+            ticket = ++requested;
+            put(FLUSH);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STDOUT_TIMEOUT_MS);
+        synchronized (flushed) {
+            while (completed < ticket && !dead) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IOException("stdout was not flushed within " + STDOUT_TIMEOUT_MS + " ms");
+                }
+                try {
+                    flushed.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing stdout");
+                }
+            }
+        }
+        if (completed < ticket) {
+            writeDirectly(FLUSH);
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        if (dead) {
+            writeDirectly(chunk);
+            return;
+        }
+        try {
+            if (!chunks.offer(chunk, STDOUT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (dead) {
+                    writeDirectly(chunk);
+                    return;
+                }
+                throw new IOException("stdout did not accept a write within " + STDOUT_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing stdout");
+        }
+    }
+
+    // The drain thread is gone, writes what it left in the queue and then the chunk on the calling thread
+    private void writeDirectly(byte[] chunk) throws IOException {
+        synchronized (target) {
+            for (byte[] left = chunks.poll(); left != null; left = chunks.poll()) {
+                if (left != FLUSH) target.write(left);
+            }
+            if (chunk != FLUSH) target.write(chunk);
+            target.flush();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                byte[] chunk = chunks.poll();
+                if (chunk == null) {
+                    // Out of work, show what was written so far
+                    target.flush();
+                    chunk = chunks.take();
+                }
+                if (chunk == FLUSH) {
+                    target.flush();
+                    synchronized (flushed) {
+                        completed++;
+                        flushed.notifyAll();
+                    }
+                } else {
+                    target.write(chunk);
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // the console failed, the callers write to it directly from now on
+        } finally {
+            synchronized (flushed) {
+                dead = true;
+                flushed.notifyAll();
+            }
+        }
+    }
+
+}
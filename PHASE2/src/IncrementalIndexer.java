@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Brings an existing index in line with the corpus instead of rebuilding it. Every document carries its key
+ * ("id") and a SHA-1 of its text ("hash"); a run streams the corpus, skips documents whose hash did not
+ * change, re-indexes changed ones with updateDocument, adds new ones and deletes the keys that disappeared.
+ * The writer must be opened with OpenMode.CREATE_OR_APPEND. Replaced and deleted documents still count in the
+ * term statistics until their segments are merged, so scores can differ slightly from a fresh build.
+ */
+public class IncrementalIndexer {
+
+    public final static String ID_FIELD = "id";
+    public final static String HASH_FIELD = "hash";
+    // Commit user data entry holding the description of the index, e.g. analyzer and similarity
+    public final static String SIGNATURE_KEY = "signature";
+
+    /**
+     * What a run did to the index
+     */
+    public static class Stats {
+        public long added;
+        public long updated;
+        public long deleted;
+        public long unchanged;
+
+        @Override
+        public String toString() {
+            return added + " added, " + updated + " updated, " + deleted + " deleted, " + unchanged + " unchanged";
+        }
+    }
+
+    private final Function<DocTuple, Document> builder;
+    private final MessageDigest digest;
+
+    /**
+     * @param builder : Builds the Lucene document of a DocTuple, e.g. Phase1::buildDocument
+     */
+    public IncrementalIndexer(Function<DocTuple, Document> builder) {
+        this.builder = builder;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**          -------------------- update function --------------------
+     *
+     * @param corpus : The current records
+     * @param writer : Writer on the existing index, opened with CREATE_OR_APPEND
+     * @param signature : Describes how documents are indexed (analyzer, similarity), the index is rebuilt
+     *                  from scratch when it was written with another signature
+     * @return : The number of added, updated, deleted and unchanged documents
+     */
+    public Stats update(CorpusReader corpus, IndexWriter writer, String signature) throws IOException {
+        Map<String, byte[]> existing = new HashMap<>();
+        Map<String, String> commitData = new HashMap<>();
+        writer.getLiveCommitData().forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+        if (signature.equals(commitData.get(SIGNATURE_KEY))) {
+            existing = readHashes(writer);
+        } else if (writer.getDocStats().maxDoc > 0) {
+            System.out.println("IncrementalIndexer: index was written with another signature, rebuilding it");
+            writer.deleteAll();
+        }
+
+        Stats stats = new Stats();
+        // Occurrences of every code, repeated codes get their own keys so no record is lost
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (DocTuple document : corpus) {
+            int occurrence = occurrences.merge(document.getCode(), 1, Integer::sum) - 1;
+            String id = (occurrence == 0) ? document.getCode() : document.getCode() + "#" + occurrence;
+            byte[] hash = digest.digest(document.getText().getBytes(StandardCharsets.UTF_8));
+
+            byte[] previous = existing.remove(id);
+            if (previous != null && Arrays.equals(previous, hash)) {
+                stats.unchanged++;
+                continue;
+            }
+            Document doc = builder.apply(document);
+            doc.add(new StringField(ID_FIELD, id, Field.Store.NO));
+            doc.add(new BinaryDocValuesField(ID_FIELD, new BytesRef(id)));
+            doc.add(new BinaryDocValuesField(HASH_FIELD, new BytesRef(hash)));
+            long start = Metrics.start();
+            if (previous == null) {
+                writer.addDocument(doc);
+                stats.added++;
+            } else {
+                writer.updateDocument(new Term(ID_FIELD, id), doc);
+                stats.updated++;
+            }
+            Metrics.stop(Metrics.Stage.INDEX, start);
+            Metrics.count("docs");
+        }
+        // Whatever was not seen in the corpus was removed from it
+        for (String id : existing.keySet()) {
+            writer.deleteDocuments(new Term(ID_FIELD, id));
+            stats.deleted++;
+        }
+
+        commitData.put(SIGNATURE_KEY, signature);
+        writer.setLiveCommitData(commitData.entrySet());
+        System.out.println("IncrementalIndexer: " + stats);
+        return stats;
+    }
+
+    // Key to hash of every live document of the index
+    private static Map<String, byte[]> readHashes(IndexWriter writer) throws IOException {
+        Map<String, byte[]> hashes = new HashMap<>();
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leaf = context.reader();
+                BinaryDocValues ids = leaf.getBinaryDocValues(ID_FIELD);
+                BinaryDocValues values = leaf.getBinaryDocValues(HASH_FIELD);
+                if (ids == null || values == null) continue;
+                Bits liveDocs = leaf.getLiveDocs();
+                for (int doc = ids.nextDoc(); doc != BinaryDocValues.NO_MORE_DOCS; doc = ids.nextDoc()) {
+                    if (liveDocs != null && !liveDocs.get(doc)) continue;
+                    if (!values.advanceExact(doc)) continue;
+                    BytesRef hash = values.binaryValue();
+                    hashes.put(ids.binaryValue().utf8ToString(),
+                            Arrays.copyOfRange(hash.bytes, hash.offset, hash.offset + hash.length));
+                }
+            }
+        }
+        return hashes;
+    }
+
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+
+/**
+ * Adaptive hyperparameter search over continuous similarity parameters, e.g. BM25 k1/b or the LMJelinekMercer
+ * lambda. Randomly sampled configurations go through successive halving: all of them are scored on a small
+ * subset of the queries, only the best third moves on to a subset twice as large, until the survivors are
+ * scored on every query. The winner is then refined with a coordinate search of shrinking step size.
+ * Every configuration is searched and evaluated in process against the same index.
+ */
+public class ParameterSearch {
+
+    /**
+     * A box of continuous parameters and the similarity they configure
+     */
+    public static class Space {
+        private final String name;
+        private final String[] names;
+        private final double[] lower;
+        private final double[] upper;
+        private final Function<double[], Similarity> factory;
+
+        /**
+         * @param name : Name of the space, used as prefix of the reported configurations
+         * @param names : Names of the parameters
+         * @param lower : Lower bound of every parameter
+         * @param upper : Upper bound of every parameter
+         * @param factory : Creates the similarity of a parameter vector
+         */
+        public Space(String name, String[] names, double[] lower, double[] upper, Function<double[], Similarity> factory) {
+            this.name = name;
+            this.names = names;
+            this.lower = lower;
+            this.upper = upper;
+            this.factory = factory;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Similarity similarity(double[] params) {
+            return factory.apply(params);
+        }
+
+        // The middle of the box
+        public double[] center() {
+            double[] center = new double[lower.length];
+            for (int d = 0; d < center.length; d++) {
+                center[d] = (lower[d] + upper[d]) / 2;
+            }
+            return center;
+        }
+
+        public String describe(double[] params) {
+            StringBuilder sb = new StringBuilder(name);
+            for (int i = 0; i < params.length; i++) {
+                sb.append('_').append(names[i]).append('_').append(String.format(Locale.ROOT, "%.3f", params[i]));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The best configuration found by a search
+     */
+    public static class Result {
+        public final String name;
+        public final double[] params;
+        public final Similarity similarity;
+        public final double map;
+        public final int evaluations;
+        public final long queryEvaluations;
+
+        private Result(String name, double[] params, Similarity similarity, double map, int evaluations, long queryEvaluations) {
+            this.name = name;
+            this.params = params;
+            this.similarity = similarity;
+            this.map = map;
+            this.evaluations = evaluations;
+            this.queryEvaluations = queryEvaluations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s map=%.4f (%d configurations, %d query evaluations)",
+                    name, map, evaluations, queryEvaluations);
+        }
+    }
+
+    // Fraction of configurations that survives a rung
+    private final static int ETA = 3;
+    // The refinement stops once the step is below range / MIN_STEP_DIVISOR
+    private final static int MIN_STEP_DIVISOR = 256;
+
+    private final IndexReader reader;
+    private final TrecEval eval;
+    private final TrecEval.DocMapping mapping;
+    private final String[] qCodes;
+    private final Query[] queries;
+    private final int depth;
+    private final ExecutorService executor;
+    private final Random random;
+    private final QueryResultCache cache;
+
+    private int evaluations;
+    private long queryEvaluations;
+
+    /**
+     * @param reader : The index to search
+     * @param eval : The judgements
+     * @param mapping : The mapping of the reader for the judgements
+     * @param qCodes : The codes of the queries
+     * @param queries : The parsed queries, queries that failed to parse are null
+     * @param depth : Number of hits per query
+     * @param threads : Number of configurations evaluated at the same time
+     * @param seed : Seed of the sampling and of the query subsets
+     * @param cache : Shares the hits of a configuration between rungs, survivors then only search the queries
+     *              added by the next rung. May be null
+     */
+    public ParameterSearch(IndexReader reader, TrecEval eval, TrecEval.DocMapping mapping, String[] qCodes, Query[] queries,
+                           int depth, int threads, long seed, QueryResultCache cache) {
+        this.reader = reader;
+        this.eval = eval;
+        this.mapping = mapping;
+        this.qCodes = qCodes;
+        this.queries = queries;
+        this.depth = depth;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.random = new Random(seed);
+        this.cache = cache;
+    }
+
+    /**          -------------------- search function --------------------
+     *
+     * @param space : The parameters to search
+     * @param candidates : Number of sampled configurations entering the successive halving, at least 1
+     * @return : The best configuration after refinement
+     */
+    public Result search(Space space, int candidates) throws IOException {
+        if (candidates < 1) throw new IllegalArgumentException("candidates must be >= 1, got " + candidates);
+        evaluations = 0;
+        queryEvaluations = 0;
+        int dims = space.lower.length;
+
+        // Random query order, the rungs use growing prefixes of it
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < queries.length; i++) {
+            if (queries[i] != null) order.add(i);
+        }
+        Collections.shuffle(order, random);
+
+        List<double[]> pool = new ArrayList<>();
+        for (int c = 0; c < candidates; c++) {
+            double[] params = new double[dims];
+            for (int d = 0; d < dims; d++) {
+                params[d] = space.lower[d] + random.nextDouble() * (space.upper[d] - space.lower[d]);
+            }
+            pool.add(params);
+        }
+
+        // -------- SUCCESSIVE HALVING --------
+        int subset = Math.max(2, order.size() / 4);
+        double[] scores;
+        while (true) {
+            subset = Math.min(subset, order.size());
+            scores = evaluate(space, pool, order.subList(0, subset));
+            System.out.println(String.format(Locale.ROOT, "ParameterSearch: %s rung with %d configurations on %d queries, best map=%.4f",
+                    space.name, pool.size(), subset, max(scores)));
+            if (subset == order.size() || pool.size() == 1) break;
+
+            Integer[] ranked = rank(scores);
+            int keep = Math.max(1, (int) Math.ceil(pool.size() / (double) ETA));
+            List<double[]> survivors = new ArrayList<>();
+            for (int i = 0; i < keep; i++) {
+                survivors.add(pool.get(ranked[i]));
+            }
+            pool = survivors;
+            subset *= 2;
+        }
+        if (subset < order.size()) {
+            scores = evaluate(space, pool, order);
+        }
+        int best = rank(scores)[0];
+        double[] bestParams = pool.get(best);
+        double bestMap = scores[best];
+
+        // -------- COORDINATE REFINEMENT ON ALL QUERIES --------
+        double[] step = new double[dims];
+        for (int d = 0; d < dims; d++) {
+            step[d] = (space.upper[d] - space.lower[d]) / 8;
+        }
+        while (step[0] > (space.upper[0] - space.lower[0]) / MIN_STEP_DIVISOR) {
+            List<double[]> neighbours = new ArrayList<>();
+            for (int d = 0; d < dims; d++) {
+                for (int dir = -1; dir <= 1; dir += 2) {
+                    double[] params = bestParams.clone();
+                    params[d] = Math.max(space.lower[d], Math.min(space.upper[d], params[d] + dir * step[d]));
+                    if (params[d] != bestParams[d]) neighbours.add(params);
+                }
+            }
+            double[] neighbourScores = evaluate(space, neighbours, order);
+            int top = neighbours.isEmpty() ? -1 : rank(neighbourScores)[0];
+            if (top >= 0 && neighbourScores[top] > bestMap) {
+                bestMap = neighbourScores[top];
+                bestParams = neighbours.get(top);
+            } else {
+                for (int d = 0; d < dims; d++) {
+                    step[d] /= 2;
+                }
+            }
+        }
+
+        Result result = new Result(space.describe(bestParams), bestParams, space.similarity(bestParams), bestMap,
+                evaluations, queryEvaluations);
+        System.out.println("ParameterSearch: best " + result);
+        return result;
+    }
+
+    // Scores every configuration on the given queries, configurations run concurrently
+    private double[] evaluate(Space space, List<double[]> pool, List<Integer> subset) throws IOException {
+        List<String> subsetCodes = new ArrayList<>();
+        for (int q : subset) {
+            subsetCodes.add(qCodes[q]);
+        }
+        List<Future<Double>> futures = new ArrayList<>();
+        for (double[] params : pool) {
+            futures.add(executor.submit(() -> {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(space.similarity(params));
+                TrecEval.Run run = eval.newRun();
+                for (int q : subset) {
+                    TopDocs hits = (cache == null) ? searcher.search(queries[q], depth)
+                            : cache.get(searcher, queries[q], depth, () -> searcher.search(queries[q], depth));
+                    run.add(qCodes[q], hits.scoreDocs, mapping);
+                }
+                return eval.evaluate(run, subsetCodes).map;
+            }));
+        }
+        double[] scores = new double[pool.size()];
+        try {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Evaluation failed", e.getCause());
+        }
+        evaluations += pool.size();
+        queryEvaluations += (long) pool.size() * subset.size();
+        return scores;
+    }
+
+    // Indexes of the scores from best to worst
+    private static Integer[] rank(double[] scores) {
+        Integer[] ranked = new Integer[scores.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, (a, b) -> Double.compare(scores[b], scores[a]));
+        return ranked;
+    }
+
+    private static double max(double[] scores) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            max = Math.max(max, score);
+        }
+        return max;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
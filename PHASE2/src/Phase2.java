@@ -1,33 +1,71 @@
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.function.UnaryOperator;
 
 // tested for lucene 7.7.3 and jdk13
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
 
 public class Phase2 {
 
     private final static String READ_DIR = "IR2024\\documents.txt";
     private final static String QUERIES_DIR = "IR2024\\queries.txt";
     private final static String RESULTS_DIR = "IR2024\\trec_eval\\experiments";
+    private final static String QRELS_DIR = "IR2024\\trec_eval\\qrels.txt";
+    private final static String INDEX_DIR = "index";
+    // Number of indexing threads (-DindexThreads=N), 1 keeps the single threaded loop
+    private final static int INDEX_THREADS = Integer.getInteger("indexThreads", 1);
+    // Workers fill private indexes merged with addIndexes instead of sharing one IndexWriter (-DperThreadWriters=true)
+    private final static boolean PER_THREAD_WRITERS = Boolean.getBoolean("perThreadWriters");
+    // Rebuild the index for every experiment instead of indexing once per sweep (-DrebuildPerExperiment=true)
+    private final static boolean REBUILD_PER_EXPERIMENT = Boolean.getBoolean("rebuildPerExperiment");
+    // Only index the added, changed and removed documents of an existing index (-Dincremental=true)
+    private final static boolean INCREMENTAL = Boolean.getBoolean("incremental");
+    // Directory of the analyzed token streams (-DtokenCache=dir), shared between runs and phases, unset disables it
+    private final static String TOKEN_CACHE = System.getProperty("tokenCache");
+    // Settings of the EnglishAnalyzer the token cache is keyed on, must change whenever the analyzer does
+    private final static String ANALYZER_CONFIG = "EnglishAnalyzer(default stopwords, no stem exclusions, PorterStemFilter)";
+    // Maximum number of cached query results (-DqueryCacheSize=N), 0 disables the cache
+    private final static int QUERY_CACHE_SIZE = Integer.getInteger("queryCacheSize", 1024);
+    // Shared by the sweep and the adaptive search, entries of a closed reader are dropped automatically
+    private final static QueryResultCache QUERY_CACHE = (QUERY_CACHE_SIZE > 0) ? new QueryResultCache(QUERY_CACHE_SIZE) : null;
+    // Also tune BM25 k1/b and LMJM lambda over continuous ranges on the sweep index (-DadaptiveSearch=true)
+    private final static boolean ADAPTIVE_SEARCH = Boolean.getBoolean("adaptiveSearch");
+    // Number of sampled configurations per similarity for the adaptive search (-DadaptiveCandidates=N)
+    private final static int ADAPTIVE_CANDIDATES = Integer.getInteger("adaptiveCandidates", 27);
+
+    // The index, opened once per run so that a RAM directory (-Ddirectory=ram) lives across the experiments
+    private static Directory index;
 
     public static void main(String[] args) throws IOException, ParseException {
+        // Progress lines are written to the console on a background thread
+        AsyncStdout.install();
+
         // Define the range of parameters for BM25
         float[] k1Values = {0.5f, 1.0f, 1.5f, 2.0f};
         float[] bValues = {0.0f, 0.25f, 0.5f, 0.75f, 1.0f};
@@ -35,53 +73,276 @@ public class Phase2 {
         // Define the range of parameters for LMJelinekMercerSimilarity
         float[] lambdaValues = {0.0f, 0.1f, 0.3f, 0.5f, 0.7f, 0.9f, 1.0f};
 
+        Map<String, Similarity> experiments = new LinkedHashMap<>();
         // BM25 Experiments
-        System.out.println("Running BM25 experiments...");
         for (float k1 : k1Values) {
             for (float b : bValues) {
-                BM25Similarity bm25 = new BM25Similarity(k1, b);
-                String experimentName = "BM25_k1_" + k1 + "_b_" + b;
-                System.out.println("Running experiment: " + experimentName);
-                runExperiment(bm25, experimentName, RESULTS_DIR);
-                System.out.println("Experiment " + experimentName + " completed.\n");
+                experiments.put("BM25_k1_" + k1 + "_b_" + b, new BM25Similarity(k1, b));
             }
         }
-
         // LMJelinekMercer Experiments
-        System.out.println("Running LMJelinekMercer experiments...");
         for (float lambda : lambdaValues) {
-            LMJelinekMercerSimilarity lm = new LMJelinekMercerSimilarity(lambda);
-            String experimentName = "LMJM_lambda_" + lambda;
-            System.out.println("Running experiment: " + experimentName);
-            runExperiment(lm, experimentName, RESULTS_DIR);
-            System.out.println("Experiment " + experimentName + " completed.\n");
+            experiments.put("LMJM_lambda_" + lambda, new LMJelinekMercerSimilarity(lambda));
+        }
+
+        Files.createDirectories(Paths.get(RESULTS_DIR));
+        long start = System.nanoTime();
+        if (REBUILD_PER_EXPERIMENT) {
+            TrecEval eval = TrecEval.load(Paths.get(QRELS_DIR));
+            Map<String, TrecEval.Run> runs = new LinkedHashMap<>();
+            for (Map.Entry<String, Similarity> experiment : experiments.entrySet()) {
+                System.out.println("Running experiment: " + experiment.getKey());
+                runs.put(experiment.getKey(), runExperiment(experiment.getValue(), experiment.getKey(), RESULTS_DIR, eval));
+                System.out.println("Experiment " + experiment.getKey() + " completed.\n");
+            }
+            printEvaluation(eval, runs);
+        } else {
+            runSweep(experiments, RESULTS_DIR);
+        }
+        if (QUERY_CACHE != null) {
+            System.out.println(QUERY_CACHE);
         }
 
-        System.out.println("All experiments were completed successfully!");
+        System.out.println("All " + experiments.size() + " experiments were completed successfully in "
+                + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s!");
+        if (index != null) {
+            index.close();
+        }
+        Metrics.export();
     }
 
-    public static void runExperiment(Similarity similarity, String experimentName, String resultsDir) throws IOException, ParseException {
-        // Construct the file path for the result file
-        String resultFilePath = resultsDir + File.separator + experimentName + ".txt";
+    /**          -------------------- runSweep function --------------------
+     * Indexes the corpus once and runs every experiment against the same postings by only swapping the
+     * similarity of the IndexSearcher. Norms are written by the index-time similarity, so experiments whose
+     * similarity encodes norms differently fall back to a dedicated index.
+     *
+     * @param experiments : Experiment names mapped to the similarity they evaluate
+     * @param resultsDir : Directory of the run files
+     */
+    public static void runSweep(Map<String, Similarity> experiments, String resultsDir) throws IOException, ParseException {
+        Analyzer analyzer = new EnglishAnalyzer();
+        String[] queries = readQueries();
+        Similarity indexSimilarity = new BM25Similarity();
+        TrecEval eval = TrecEval.load(Paths.get(QRELS_DIR));
+        Map<String, TrecEval.Run> runs = new LinkedHashMap<>();
+
+        System.out.println("Building the sweep index with " + indexSimilarity);
+        buildIndex(index(), analyzer, indexSimilarity);
+
+        try (IndexReader reader = DirectoryReader.open(index())) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TrecEval.DocMapping mapping = eval.mapping(reader, "code");
+            for (Map.Entry<String, Similarity> experiment : experiments.entrySet()) {
+                String experimentName = experiment.getKey();
+                Similarity similarity = experiment.getValue();
+                if (!sameNorms(indexSimilarity, similarity)) {
+                    // A directory of its own, the sweep index stays open and keeps its norms
+                    System.out.println("Experiment " + experimentName + " encodes norms differently, re-indexing");
+                    try (Directory fallback = DirectoryFactory.open(Paths.get(INDEX_DIR + "_" + experimentName))) {
+                        runs.put(experimentName, runExperiment(fallback, similarity, experimentName, resultsDir, eval));
+                    }
+                    continue;
+                }
+                System.out.println("Running experiment: " + experimentName);
+                searcher.setSimilarity(similarity);
+                runs.put(experimentName, writeRun(analyzer, searcher, queries, resultsDir, experimentName, eval, mapping));
+            }
+            if (ADAPTIVE_SEARCH) {
+                adaptiveSearch(analyzer, reader, indexSimilarity, queries, resultsDir, eval, mapping, runs);
+            }
+        }
+
+        printEvaluation(eval, runs);
+    }
+
+    /**          -------------------- adaptiveSearch function --------------------
+     * Searches BM25 k1/b and LMJM lambda over continuous ranges with successive halving on growing query
+     * subsets followed by a coordinate refinement, and writes the run file of the best setting of each
+     *
+     * @param indexSimilarity : The similarity the index was written with, spaces with other norms are skipped
+     * @param runs : The runs of the sweep, the best runs of the search are added to them
+     */
+    private static void adaptiveSearch(Analyzer analyzer, IndexReader reader, Similarity indexSimilarity, String[] queries,
+                                       String resultsDir, TrecEval eval, TrecEval.DocMapping mapping,
+                                       Map<String, TrecEval.Run> runs) throws IOException {
+        String[] qCodes = new String[queries.length];
+        Query[] parsed = new Query[queries.length];
+        QueryParser parser = new QueryParser("content", analyzer);
+        for (int i = 0; i < queries.length; i++) {
+            int temp = i + 1;
+            qCodes[i] = (i < 9) ? "Q0" + temp : "Q" + temp;
+            try {
+                parsed[i] = parser.parse(queries[i]);
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+        }
+
+        List<ParameterSearch.Space> spaces = new ArrayList<>();
+        spaces.add(new ParameterSearch.Space("BM25", new String[]{"k1", "b"}, new double[]{0.1, 0.0}, new double[]{3.0, 1.0},
+                p -> new BM25Similarity((float) p[0], (float) p[1])));
+        spaces.add(new ParameterSearch.Space("LMJM", new String[]{"lambda"}, new double[]{0.01}, new double[]{1.0},
+                p -> new LMJelinekMercerSimilarity((float) p[0])));
+
+        IndexSearcher searcher = new IndexSearcher(reader);
+        ParameterSearch parameterSearch = new ParameterSearch(reader, eval, mapping, qCodes, parsed, 50,
+                Runtime.getRuntime().availableProcessors(), 42, QUERY_CACHE);
+        try {
+            for (ParameterSearch.Space space : spaces) {
+                if (!sameNorms(indexSimilarity, space.similarity(space.center()))) {
+                    System.out.println("Adaptive search: " + space.getName() + " encodes norms differently, skipped");
+                    continue;
+                }
+                long start = System.nanoTime();
+                ParameterSearch.Result best = parameterSearch.search(space, ADAPTIVE_CANDIDATES);
+                System.out.println("Adaptive search: " + best + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                searcher.setSimilarity(best.similarity);
+                String experimentName = "ADAPTIVE_" + best.name;
+                runs.put(experimentName, writeRun(analyzer, searcher, queries, resultsDir, experimentName, eval, mapping));
+            }
+        } finally {
+            parameterSearch.close();
+        }
+    }
+
+    public static TrecEval.Run runExperiment(Similarity similarity, String experimentName, String resultsDir, TrecEval eval)
+            throws IOException, ParseException {
+        return runExperiment(index(), similarity, experimentName, resultsDir, eval);
+    }
 
+    /**          -------------------- runExperiment function --------------------
+     *
+     * @param index : The directory the experiment (re)builds its index in
+     */
+    private static TrecEval.Run runExperiment(Directory index, Similarity similarity, String experimentName, String resultsDir,
+                                              TrecEval eval) throws IOException, ParseException {
         Analyzer analyzer = new EnglishAnalyzer();
-        Directory index = FSDirectory.open(Paths.get("index"));
+        buildIndex(index, analyzer, similarity);
+
+        try (IndexReader reader = DirectoryReader.open(index)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(similarity);
+            return writeRun(analyzer, searcher, readQueries(), resultsDir, experimentName, eval, eval.mapping(reader, "code"));
+        }
+    }
+
+    /**          -------------------- printEvaluation function --------------------
+     * Scores all runs in process against the qrels and prints them from best to worst MAP
+     */
+    private static void printEvaluation(TrecEval eval, Map<String, TrecEval.Run> runs) {
+        long start = System.nanoTime();
+        Map<String, TrecEval.Measures> results = eval.evaluateAll(runs);
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+        List<Map.Entry<String, TrecEval.Measures>> ranked = new ArrayList<>(results.entrySet());
+        ranked.sort((a, b) -> Double.compare(b.getValue().map, a.getValue().map));
+        System.out.println(String.format(Locale.ROOT, "%-32s %8s %8s %8s %8s %8s", "experiment", "map", "Rprec", "P_5", "P_10", "ndcg_10"));
+        for (Map.Entry<String, TrecEval.Measures> result : ranked) {
+            TrecEval.Measures m = result.getValue();
+            System.out.println(String.format(Locale.ROOT, "%-32s %8.4f %8.4f %8.4f %8.4f %8.4f", result.getKey(),
+                    m.map, m.rPrec, m.precisionAt(5), m.precisionAt(10), m.ndcgAt(10)));
+        }
+        System.out.println("Evaluated " + runs.size() + " runs in " + micros + " us");
+    }
+
+    /**          -------------------- buildIndex function --------------------
+     * (Re)creates the index in the directory from the documents file, norms are computed with the given similarity. In incremental
+     * mode only the documents that changed since the last build are indexed
+     */
+    private static void buildIndex(Directory index, Analyzer analyzer, Similarity similarity) throws IOException {
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setSimilarity(similarity);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setOpenMode(INCREMENTAL ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        // Larger RAM buffer, no compound files and tuned merges with -DbulkLoad
+        BulkLoad.configure(config);
 
         IndexWriter writer = new IndexWriter(index, config);
 
-        String docs_file = ReadEntireFileIntoAString(READ_DIR);
-        String[] docs = txtSplitter(docs_file, "///");
-
-        for (int i = 0; i < docs.length; i++) {
-            DocTuple document = parseDocument(docs[i]);
-            System.out.println(document.getCode());
-            addDoc(writer, document);
+        try (CorpusReader corpus = new CorpusReader(READ_DIR, Phase2::parseDocument)) {
+            if (INCREMENTAL) {
+                // Norms depend on the similarity, so it is part of the signature of the index
+                new IncrementalIndexer(Phase2::buildDocument).update(corpus, writer, analyzer.getClass().getName() + "/" + similarity);
+            } else if (INDEX_THREADS > 1) {
+                ParallelIndexer indexer = new ParallelIndexer(INDEX_THREADS, INDEX_THREADS * 64, Phase2::parseDocument, Phase2::addDoc);
+                if (PER_THREAD_WRITERS) {
+                    indexer.indexPerThread(corpus, writer,
+                            () -> BulkLoad.configure(new IndexWriterConfig(analyzer).setSimilarity(similarity), INDEX_THREADS));
+                } else {
+                    indexer.index(corpus, writer);
+                }
+            } else if (TOKEN_CACHE != null) {
+                // Analyze every document only once, later builds replay the recorded tokens
+                try (TokenStreamCache tokens = TokenStreamCache.open(Paths.get(TOKEN_CACHE), analyzer, ANALYZER_CONFIG, "content", Paths.get(READ_DIR))) {
+                    for (DocTuple document : corpus) {
+                        System.out.println(document.getCode());
+                        addDoc(writer, buildDocument(document, tokens.next(document.getText())));
+                    }
+                    tokens.commit();
+                }
+            } else {
+                for (DocTuple document : corpus) {
+                    System.out.println(document.getCode());
+                    addDoc(writer, document);
+                }
+            }
         }
+        long commitStart = Metrics.start();
+        BulkLoad.finish(writer);
         writer.close();
+        Metrics.stop(Metrics.Stage.COMMIT, commitStart);
+        BulkLoad.report(index);
+        DirectoryFactory.report(index);
+    }
+
+    private static synchronized Directory index() throws IOException {
+        if (index == null) {
+            index = DirectoryFactory.open(Paths.get(INDEX_DIR));
+        }
+        return index;
+    }
+
+    /**          -------------------- writeRun function --------------------
+     * Searches every query with the current similarity of the searcher, writes the TREC run file
+     * resultsDir/experimentName.txt and returns the run for in-process evaluation
+     */
+    private static TrecEval.Run writeRun(Analyzer analyzer, IndexSearcher searcher, String[] queries, String resultsDir,
+                                         String experimentName, TrecEval eval, TrecEval.DocMapping mapping) throws IOException {
+        // Construct the file path for the result file
+        String resultFilePath = resultsDir + File.separator + experimentName + ".txt";
+        TrecEval.Run run = eval.newRun();
+        try (TrecRunWriter runWriter = new TrecRunWriter(new BufferedWriter(new FileWriter(resultFilePath)), "myIRMethod")) {
+            for (int i = 0; i < queries.length; i++) {
+                int temp = i + 1;
+                String qCode = (i < 9) ? "Q0" + temp : "Q" + temp;
+                TopDocs results = search(analyzer, searcher, "content", queries[i], qCode, 50, runWriter);
+                if (results != null) {
+                    run.add(qCode, results.scoreDocs, mapping);
+                }
+            }
+        }
+        return run;
+    }
+
+    /**          -------------------- sameNorms function --------------------
+     * Checks that two similarities encode the same norm for a range of field lengths, in which case an index
+     * written with the first one can be searched with the second one.
+     */
+    private static boolean sameNorms(Similarity indexed, Similarity searched) {
+        for (int length = 0; length <= 1 << 20; length = (length < 1024) ? length + 1 : length << 1) {
+            for (int overlap = 0; overlap <= Math.min(length, 1); overlap++) {
+                FieldInvertState state = new FieldInvertState(Version.LATEST.major, "content", length, length, overlap, 0);
+                if (indexed.computeNorm(state) != searched.computeNorm(state)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
+    private static String[] readQueries() throws FileNotFoundException {
+        String queries_file = ReadEntireFileIntoAString(QUERIES_DIR);
+        return editQueries(txtSplitter(queries_file, "///"), "Q\\d+", "");
     }
 
     /**          -------------------- parseDocument function --------------------
@@ -112,17 +373,50 @@ public class Phase2 {
      * @throws IOException
      */
     private static void addDoc(IndexWriter writer, DocTuple dc) throws IOException {
+        addDoc(writer, buildDocument(dc));
+    }
+
+    private static void addDoc(IndexWriter writer, Document doc) throws IOException {
+        // Add document to the index
+        long start = Metrics.start();
+        writer.addDocument(doc);
+        Metrics.stop(Metrics.Stage.INDEX, start);
+        Metrics.count("docs");
+    }
+
+    /**         -------------------- buildDocument function --------------------
+     *
+     * @param dc : A DocTuple object that helps us get the document code and its content to define the fields
+     *          of the document
+     * @return : The Lucene document of the DocTuple
+     */
+    private static Document buildDocument(DocTuple dc) {
+        return buildDocument(dc, null);
+    }
+
+    /**         -------------------- buildDocument function --------------------
+     *
+     * @param dc : A DocTuple object that helps us get the document code and its content to define the fields
+     *          of the document
+     * @param tokens : The already analyzed content, e.g. replayed from the TokenStreamCache, null to analyze
+     *          the text of the DocTuple
+     * @return : The Lucene document of the DocTuple
+     */
+    private static Document buildDocument(DocTuple dc, TokenStream tokens) {
         Document doc = new Document();
         // Create fields
         TextField code = new TextField("code", dc.getCode(), Field.Store.YES);
 
-        TextField content = new TextField("content", dc.getText(), Field.Store.NO);
+        TextField content = (tokens == null) ? new TextField("content", dc.getText(), Field.Store.NO)
+                : new TextField("content", tokens);
+        // The code again as doc values, so writing results needs no stored field access
+        SortedDocValuesField codeValue = new SortedDocValuesField("code", new BytesRef(dc.getCode()));
 
         // Add fields to document
         doc.add(code);
         doc.add(content);
-        // Add document to the index
-        writer.addDocument(doc);
+        doc.add(codeValue);
+        return doc;
     }
 
     /**          -------------------- search function --------------------
@@ -130,37 +424,39 @@ public class Phase2 {
      * @param analyzer : The analyzer for our index
      * @param indexSearcher : Our index searcher
      * @param field : The field of our index to run the query on
-     * @param qCode : The code of our query
      * @param searchQuery : The query we want to search for results
-     * @param filewriter : The writer for our myResults.txt file
+     * @param qCode : The code of our query
+     * @param noDocs : Number of hits to keep
+     * @param runWriter : The writer for the run file of the experiment
+     * @return : The written hits, null when the query could not be searched
      */
-    private static void search(Analyzer analyzer, IndexSearcher indexSearcher, String field, String searchQuery, String qCode,
-                                int noDocs, BufferedWriter filewriter) {
+    private static TopDocs search(Analyzer analyzer, IndexSearcher indexSearcher, String field, String searchQuery, String qCode,
+                                int noDocs, TrecRunWriter runWriter) {
 
         try{
+            long start = Metrics.start();
             // create a query parser on the field "contents"
             QueryParser parser = new QueryParser(field, analyzer);
 
             // parse the query according to QueryParser
             Query query = parser.parse(searchQuery);
+            Metrics.stop(Metrics.Stage.QUERY_PARSE, start);
             System.out.println("search(): Searching for Query "+ qCode+ ": '" + query.toString(field)+"'");
 
-            // search the index using the indexSearcher
-            TopDocs results = indexSearcher.search(query, noDocs);
-            ScoreDoc[] hits = results.scoreDocs;
-
-            // Write each element of the data array to the file
-            for (int i=0; i<hits.length; i++) {
-                Document hitDoc = indexSearcher.doc(hits[i].doc);
-                String line = qCode + " 0 " + hitDoc.get("code") + " 0 " + hits[i].score + " myIRMethod";
-                filewriter.write(line);
-                filewriter.newLine(); // Add a newline after each line if needed
-            }
+            // search the index using the indexSearcher, or reuse the hits of an earlier identical search
+            QueryResultCache.Loader load = () -> indexSearcher.search(query, noDocs);
+            long searchStart = Metrics.start();
+            TopDocs results = (QUERY_CACHE == null) ? load.load()
+                    : QUERY_CACHE.get(indexSearcher, query, noDocs, load);
+            Metrics.stop(Metrics.Stage.SEARCH, searchStart);
+            Metrics.histogram("query_latency").record(System.nanoTime() - start);
+            runWriter.write(qCode, indexSearcher.getIndexReader(), results.scoreDocs);
             System.out.println("search(): Successfull search and write!");
-
+            return results;
 
         } catch(Exception e){
             e.printStackTrace();
+            return null;
         }
 
     }
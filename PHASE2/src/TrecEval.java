@@ -0,0 +1,386 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * In-process replacement for trec_eval.exe. The qrels are loaded once into primitive arrays and runs are
+ * scored either straight from the TopDocs of a search or from TREC run files, following the conventions of
+ * trec_eval: hits are ordered by descending score with ties broken by descending docno, documents with a
+ * relevance grade above zero are relevant and measures are averaged over the queries of the run that have
+ * judgements.
+ */
+public class TrecEval {
+
+    public final static int[] CUTOFFS = {5, 10, 15, 20, 30, 100};
+
+    // Query code -> query index, docno -> judged document id
+    private final Map<String, Integer> queries = new LinkedHashMap<>();
+    private final Map<String, Integer> judged = new HashMap<>();
+    // Per query index: judged document ids in ascending order and their relevance grades
+    private int[][] judgedDocs;
+    private int[][] grades;
+    private int[] numRelevant;
+    // Per query index: the grades in descending order, for the ideal DCG
+    private int[][] idealGrades;
+
+    private TrecEval() {
+    }
+
+    /**          -------------------- load function --------------------
+     *
+     * @param qrels : Path of a qrels file ("Q01 0 docno grade" per line)
+     * @return : An evaluator for the judgements of the file
+     */
+    public static TrecEval load(Path qrels) throws IOException {
+        TrecEval eval = new TrecEval();
+        List<List<int[]>> perQuery = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(qrels, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] cols = line.replace("\uFEFF", "").trim().split("\\s+");
+                if (cols.length < 4) continue;
+                Integer query = eval.queries.get(cols[0]);
+                if (query == null) {
+                    query = eval.queries.size();
+                    eval.queries.put(cols[0], query);
+                    perQuery.add(new ArrayList<>());
+                }
+                Integer doc = eval.judged.get(cols[2]);
+                if (doc == null) {
+                    doc = eval.judged.size();
+                    eval.judged.put(cols[2], doc);
+                }
+                perQuery.get(query).add(new int[]{doc, Integer.parseInt(cols[3])});
+            }
+        }
+
+        int n = perQuery.size();
+        eval.judgedDocs = new int[n][];
+        eval.grades = new int[n][];
+        eval.numRelevant = new int[n];
+        eval.idealGrades = new int[n][];
+        for (int q = 0; q < n; q++) {
+            List<int[]> judgements = perQuery.get(q);
+            judgements.sort((a, b) -> Integer.compare(a[0], b[0]));
+            eval.judgedDocs[q] = new int[judgements.size()];
+            eval.grades[q] = new int[judgements.size()];
+            for (int i = 0; i < judgements.size(); i++) {
+                eval.judgedDocs[q][i] = judgements.get(i)[0];
+                eval.grades[q][i] = judgements.get(i)[1];
+                if (eval.grades[q][i] > 0) eval.numRelevant[q]++;
+            }
+            int[] ideal = eval.grades[q].clone();
+            Arrays.sort(ideal);
+            for (int i = 0, j = ideal.length - 1; i < j; i++, j--) {
+                int tmp = ideal[i];
+                ideal[i] = ideal[j];
+                ideal[j] = tmp;
+            }
+            eval.idealGrades[q] = ideal;
+        }
+        return eval;
+    }
+
+    /**
+     * @return : The judged document id of a docno, -1 when the document is not judged for any query
+     */
+    public int judgedId(String docno) {
+        Integer id = judged.get(docno);
+        return id == null ? -1 : id;
+    }
+
+    /**          -------------------- mapping function --------------------
+     * Maps every document of an index to its judged document id and to the rank of its code among all
+     * codes, read from the sorted doc values of the "code" field. The mapping is computed once per reader
+     * and then lets TopDocs be evaluated without touching the index again.
+     */
+    public DocMapping mapping(IndexReader reader, String codeField) throws IOException {
+        int maxDoc = reader.maxDoc();
+        int[] ids = new int[maxDoc];
+        int[] ords = new int[maxDoc];
+        Arrays.fill(ids, -1);
+        Arrays.fill(ords, -1);
+        SortedDocValues codes = MultiDocValues.getSortedValues(reader, codeField);
+        if (codes != null) {
+            // Global ordinals follow the byte order of the codes, which is the docno order trec_eval uses for ties
+            int[] idOfOrd = new int[codes.getValueCount()];
+            for (int ord = 0; ord < idOfOrd.length; ord++) {
+                BytesRef code = codes.lookupOrd(ord);
+                idOfOrd[ord] = judgedId(code.utf8ToString());
+            }
+            for (int doc = codes.nextDoc(); doc != SortedDocValues.NO_MORE_DOCS; doc = codes.nextDoc()) {
+                ords[doc] = codes.ordValue();
+                ids[doc] = idOfOrd[ords[doc]];
+            }
+        }
+        return new DocMapping(ids, ords);
+    }
+
+    /**
+     * Lucene doc id -> judged document id and docno rank, see {@link #mapping(IndexReader, String)}
+     */
+    public static class DocMapping {
+        private final int[] ids;
+        private final int[] ords;
+
+        private DocMapping(int[] ids, int[] ords) {
+            this.ids = ids;
+            this.ords = ords;
+        }
+    }
+
+    /**
+     * The ranked judged document ids of every query of one run
+     */
+    public class Run {
+        private final int[][] ranked = new int[judgedDocs.length][];
+
+        /**          -------------------- add function --------------------
+         *
+         * @param qCode : The code of the query, queries without judgements are ignored
+         * @param hits : The hits of the query, e.g. TopDocs.scoreDocs
+         * @param mapping : The mapping of the reader the hits come from
+         */
+        public void add(String qCode, ScoreDoc[] hits, DocMapping mapping) {
+            Integer query = queries.get(qCode);
+            if (query == null) return;
+            int n = hits.length;
+            float[] scores = new float[n];
+            int[] ords = new int[n];
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                scores[i] = hits[i].score;
+                ords[i] = mapping.ords[hits[i].doc];
+                ids[i] = mapping.ids[hits[i].doc];
+            }
+            // Insertion sort by descending score, then descending docno, cheap since TopDocs are already ordered by score
+            for (int i = 1; i < n; i++) {
+                float score = scores[i];
+                int ord = ords[i];
+                int id = ids[i];
+                int j = i - 1;
+                while (j >= 0 && (scores[j] < score || (scores[j] == score && ords[j] < ord))) {
+                    scores[j + 1] = scores[j];
+                    ords[j + 1] = ords[j];
+                    ids[j + 1] = ids[j];
+                    j--;
+                }
+                scores[j + 1] = score;
+                ords[j + 1] = ord;
+                ids[j + 1] = id;
+            }
+            ranked[query] = ids;
+        }
+
+        private void add(String qCode, List<String> docnos, List<Double> scores) {
+            Integer query = queries.get(qCode);
+            if (query == null) return;
+            Integer[] order = new Integer[docnos.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> {
+                int c = Double.compare(scores.get(b), scores.get(a));
+                return c != 0 ? c : docnos.get(b).compareTo(docnos.get(a));
+            });
+            int[] ids = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ids[i] = judgedId(docnos.get(order[i]));
+            }
+            ranked[query] = ids;
+        }
+    }
+
+    public Run newRun() {
+        return new Run();
+    }
+
+    /**          -------------------- readRun function --------------------
+     *
+     * @param file : A TREC run file ("Q01 0 docno rank score tag" per line)
+     */
+    public Run readRun(Path file) throws IOException {
+        Map<String, List<String>> docnos = new LinkedHashMap<>();
+        Map<String, List<Double>> scores = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] cols = line.trim().split("\\s+");
+                if (cols.length < 5) continue;
+                docnos.computeIfAbsent(cols[0], k -> new ArrayList<>()).add(cols[2]);
+                scores.computeIfAbsent(cols[0], k -> new ArrayList<>()).add(Double.parseDouble(cols[4]));
+            }
+        }
+        Run run = new Run();
+        for (Map.Entry<String, List<String>> query : docnos.entrySet()) {
+            run.add(query.getKey(), query.getValue(), scores.get(query.getKey()));
+        }
+        return run;
+    }
+
+    /**
+     * Averaged measures of one run
+     */
+    public static class Measures {
+        public int queries;
+        public double map;
+        public double rPrec;
+        public final double[] precision = new double[CUTOFFS.length];
+        public final double[] ndcg = new double[CUTOFFS.length];
+
+        public double precisionAt(int cutoff) {
+            return precision[cutoffIndex(cutoff)];
+        }
+
+        public double ndcgAt(int cutoff) {
+            return ndcg[cutoffIndex(cutoff)];
+        }
+
+        private static int cutoffIndex(int cutoff) {
+            for (int i = 0; i < CUTOFFS.length; i++) {
+                if (CUTOFFS[i] == cutoff) return i;
+            }
+            throw new IllegalArgumentException("Unsupported cutoff " + cutoff + ", use one of " + Arrays.toString(CUTOFFS));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "%-22s\tall\t%d%n", "num_q", queries));
+            sb.append(String.format(Locale.ROOT, "%-22s\tall\t%.4f%n", "map", map));
+            sb.append(String.format(Locale.ROOT, "%-22s\tall\t%.4f%n", "Rprec", rPrec));
+            for (int i = 0; i < CUTOFFS.length; i++) {
+                sb.append(String.format(Locale.ROOT, "%-22s\tall\t%.4f%n", "P_" + CUTOFFS[i], precision[i]));
+            }
+            for (int i = 0; i < CUTOFFS.length; i++) {
+                sb.append(String.format(Locale.ROOT, "%-22s\tall\t%.4f%n", "ndcg_cut_" + CUTOFFS[i], ndcg[i]));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**          -------------------- evaluate function --------------------
+     *
+     * @param run : The run to score
+     * @return : The measures averaged over the judged queries of the run
+     */
+    public Measures evaluate(Run run) {
+        return evaluate(run, null);
+    }
+
+    /**          -------------------- evaluate function --------------------
+     *
+     * @param run : The run to score
+     * @param subset : Query codes to average over, null for all judged queries of the run
+     * @return : The measures averaged over the judged queries of the run that are in the subset
+     */
+    public Measures evaluate(Run run, Collection<String> subset) {
+        Measures measures = new Measures();
+        double[] gains = new double[0];
+        for (Map.Entry<String, Integer> query : queries.entrySet()) {
+            int q = query.getValue();
+            int[] ids = run.ranked[q];
+            if (ids == null || (subset != null && !subset.contains(query.getKey()))) continue;
+            if (gains.length < ids.length) gains = new double[ids.length];
+
+            int relevantSoFar = 0;
+            double sumPrecision = 0;
+            double rPrecision = 0;
+            int r = numRelevant[q];
+            for (int rank = 0; rank < ids.length; rank++) {
+                int grade = grade(q, ids[rank]);
+                gains[rank] = grade;
+                if (grade > 0) {
+                    relevantSoFar++;
+                    sumPrecision += (double) relevantSoFar / (rank + 1);
+                }
+                if (rank + 1 == r) rPrecision = (double) relevantSoFar / r;
+            }
+            if (r > ids.length) rPrecision = (double) relevantSoFar / r;
+
+            measures.queries++;
+            measures.map += r == 0 ? 0 : sumPrecision / r;
+            measures.rPrec += rPrecision;
+            for (int i = 0; i < CUTOFFS.length; i++) {
+                int cutoff = CUTOFFS[i];
+                int relevant = 0;
+                double dcg = 0;
+                double idcg = 0;
+                for (int rank = 0; rank < cutoff; rank++) {
+                    double discount = Math.log(rank + 2) / Math.log(2);
+                    if (rank < ids.length) {
+                        if (gains[rank] > 0) relevant++;
+                        dcg += gains[rank] / discount;
+                    }
+                    if (rank < idealGrades[q].length && idealGrades[q][rank] > 0) {
+                        idcg += idealGrades[q][rank] / discount;
+                    }
+                }
+                measures.precision[i] += (double) relevant / cutoff;
+                measures.ndcg[i] += idcg == 0 ? 0 : dcg / idcg;
+            }
+        }
+
+        if (measures.queries > 0) {
+            measures.map /= measures.queries;
+            measures.rPrec /= measures.queries;
+            for (int i = 0; i < CUTOFFS.length; i++) {
+                measures.precision[i] /= measures.queries;
+                measures.ndcg[i] /= measures.queries;
+            }
+        }
+        return measures;
+    }
+
+    /**          -------------------- evaluateAll function --------------------
+     *
+     * @param runs : Runs by name
+     * @return : The measures of every run by name, in the order of the input, computed in parallel
+     */
+    public Map<String, Measures> evaluateAll(Map<String, Run> runs) {
+        List<String> names = new ArrayList<>(runs.keySet());
+        Measures[] measures = new Measures[names.size()];
+        IntStream.range(0, names.size()).parallel()
+                .forEach(i -> measures[i] = evaluate(runs.get(names.get(i))));
+        Map<String, Measures> results = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            results.put(names.get(i), measures[i]);
+        }
+        return results;
+    }
+
+    private int grade(int query, int id) {
+        if (id < 0) return 0;
+        int i = Arrays.binarySearch(judgedDocs[query], id);
+        return i < 0 ? 0 : grades[query][i];
+    }
+
+    /**
+     * Usage: TrecEval qrels.txt run1.txt [run2.txt ...]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TrecEval <qrels> <run> [<run> ...]");
+            System.exit(1);
+        }
+        TrecEval eval = load(Paths.get(args[0]));
+        Map<String, Run> runs = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            runs.put(args[i], eval.readRun(Paths.get(args[i])));
+        }
+        for (Map.Entry<String, Measures> result : eval.evaluateAll(runs).entrySet()) {
+            System.out.println(result.getKey());
+            System.out.print(result.getValue());
+        }
+    }
+
+}
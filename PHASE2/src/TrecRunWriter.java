@@ -0,0 +1,128 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+/**
+ * Writes TREC run lines ("Q01 0 code 0 score tag") for ranked hits. Document codes are read from the
+ * sorted doc values of the "code" field instead of the stored fields, and every line is formatted into the
+ * same reusable buffer before it is handed to the underlying writer.
+ */
+public class TrecRunWriter implements Closeable {
+
+    public final static String CODE_FIELD = "code";
+
+    private final Writer out;
+    private final String tag;
+    private final String lineSeparator = System.lineSeparator();
+
+    // Reused between lines and queries
+    private final StringBuilder line = new StringBuilder(64);
+    private final CharsRefBuilder code = new CharsRefBuilder();
+    private char[] chars = new char[64];
+    private int[] docs = new int[0];
+    private long[] byDoc = new long[0];
+    private int[] ords = new int[0];
+    private SortedDocValues[] codes = new SortedDocValues[0];
+
+    /**
+     * @param out : The writer of the run file, e.g. a BufferedWriter on myResults.txt
+     * @param tag : The run tag at the end of every line
+     */
+    public TrecRunWriter(Writer out, String tag) {
+        this.out = out;
+        this.tag = tag;
+    }
+
+    /**          -------------------- write function --------------------
+     *
+     * @param qCode : The code of the query
+     * @param reader : The reader the hits were searched on
+     * @param hits : The ranked hits of the query
+     */
+    public void write(String qCode, IndexReader reader, ScoreDoc[] hits) throws IOException {
+        long start = Metrics.start();
+        int[] docs = docs(hits.length);
+        for (int i = 0; i < hits.length; i++) {
+            docs[i] = hits[i].doc;
+        }
+        resolveCodes(reader, docs, hits.length);
+        for (int i = 0; i < hits.length; i++) {
+            line.setLength(0);
+            line.append(qCode).append(" 0 ");
+            appendCode(i);
+            line.append(" 0 ").append(hits[i].score).append(' ').append(tag).append(lineSeparator);
+            flushLine();
+        }
+        Metrics.stop(Metrics.Stage.WRITE, start);
+        Metrics.count("hits", hits.length);
+    }
+
+    private int[] docs(int count) {
+        if (docs.length < count) {
+            docs = new int[count];
+            byDoc = new long[count];
+            ords = new int[count];
+            codes = new SortedDocValues[count];
+        }
+        return docs;
+    }
+
+    // Looks up the code ordinal of every hit, visiting the hits in doc id order since doc values only move forward
+    private void resolveCodes(IndexReader reader, int[] docs, int count) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        // Doc id in the high bits, rank in the low bits, so a primitive sort orders the hits by doc id
+        for (int i = 0; i < count; i++) {
+            byDoc[i] = ((long) docs[i] << 32) | i;
+        }
+        Arrays.sort(byDoc, 0, count);
+
+        int currentLeaf = -1;
+        SortedDocValues values = null;
+        for (int i = 0; i < count; i++) {
+            int hit = (int) byDoc[i];
+            int leaf = ReaderUtil.subIndex(docs[hit], leaves);
+            LeafReaderContext context = leaves.get(leaf);
+            if (leaf != currentLeaf) {
+                values = DocValues.getSorted(context.reader(), CODE_FIELD);
+                currentLeaf = leaf;
+            }
+            ords[hit] = values.advanceExact(docs[hit] - context.docBase) ? values.ordValue() : -1;
+            codes[hit] = values;
+        }
+    }
+
+    private void appendCode(int hit) throws IOException {
+        if (ords[hit] < 0) {
+            throw new IllegalStateException("Hit " + hit + " has no \"" + CODE_FIELD + "\" doc value, re-index the documents");
+        }
+        BytesRef bytes = codes[hit].lookupOrd(ords[hit]);
+        code.copyUTF8Bytes(bytes);
+        line.append(code.chars(), 0, code.length());
+    }
+
+    private void flushLine() throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[length << 1];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of a top k search in an {@link HnswIndex} per efSearch, against the exact scan it approximates. The
+ * document vectors are synthetic clustered unit vectors; the recall@k of every efSearch against the exact scan is
+ * printed once the graph is built. The queries are searched round robin, one per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HnswBenchmark {
+
+    @Param("50000")
+    public int docs;
+
+    @Param("100")
+    public int dimension;
+
+    // Number of clusters the document vectors are drawn around
+    @Param("200")
+    public int clusters;
+
+    @Param("16")
+    public int m;
+
+    @Param("100")
+    public int efConstruction;
+
+    @Param({"50", "100", "200"})
+    public int efSearch;
+
+    @Param("50")
+    public int k;
+
+    @Param("100")
+    public int queryCount;
+
+    private Directory directory;
+    private IndexReader reader;
+    private DocVectorStore docVectors;
+    private DocVectorStore.LeafVectors leafVectors;
+    private HnswIndex hnsw;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (int doc = 0; doc < docs; doc++) {
+                writer.addDocument(new Document());
+            }
+            // One segment, so segment and top level doc ids are the same
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+
+        float[][] centers = new float[clusters][];
+        Random random = new Random(42);
+        for (int c = 0; c < clusters; c++) {
+            centers[c] = gaussian(random, 1);
+        }
+        docVectors = new DocVectorStore(directory, new DocVectorStore.Vectorizer() {
+            @Override
+            public int dimension() {
+                return dimension;
+            }
+
+            @Override
+            public String key() {
+                return "synthetic" + dimension;
+            }
+
+            @Override
+            public void vectorize(LeafReader leaf, int doc, float[][] vectors) {
+                float[] vector = vectors[DocVectorStore.Variant.AVERAGE.ordinal()];
+                System.arraycopy(near(centers[doc % clusters], new Random(doc)), 0, vector, 0, dimension);
+            }
+        });
+        docVectors.warm(reader);
+        leafVectors = docVectors.vectors(reader.leaves().get(0).reader());
+
+        hnsw = HnswIndex.build(reader, docVectors, m, efConstruction);
+
+        queries = new float[queryCount][];
+        for (int q = 0; q < queryCount; q++) {
+            queries[q] = near(centers[random.nextInt(clusters)], random);
+        }
+
+        double recall = 0;
+        for (float[] query : queries) {
+            recall += recall(hnsw.search(query, k, efSearch), exact(query));
+        }
+        System.out.println(String.format(Locale.ROOT, "%nrecall@%d of efSearch=%d: %.4f", k, efSearch, recall / queryCount));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        docVectors.close();
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs hnsw() {
+        float[] query = queries[next];
+        next = (next + 1 == queries.length) ? 0 : next + 1;
+        return hnsw.search(query, k, efSearch);
+    }
+
+    @Benchmark
+    public int[] exact() throws IOException {
+        float[] query = queries[next];
+        next = (next + 1 == queries.length) ? 0 : next + 1;
+        return exact(query);
+    }
+
+    // The k nearest documents by a scan of every vector, best first
+    private int[] exact(float[] query) throws IOException {
+        int[] best = new int[k];
+        float[] scores = new float[k];
+        int count = 0;
+        for (int doc = 0; doc < docs; doc++) {
+            float score = leafVectors.dot(DocVectorStore.Variant.AVERAGE, doc, query);
+            if (count == k && score <= scores[k - 1]) continue;
+            int i = (count < k) ? count++ : k - 1;
+            while (i > 0 && scores[i - 1] < score) {
+                best[i] = best[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            best[i] = doc;
+            scores[i] = score;
+        }
+        return best;
+    }
+
+    private static double recall(TopDocs approximate, int[] exact) {
+        int found = 0;
+        for (ScoreDoc hit : approximate.scoreDocs) {
+            for (int doc : exact) {
+                if (hit.doc == doc) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found / (double) exact.length;
+    }
+
+    private float[] gaussian(Random random, float scale) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    // A unit vector drawn around the center
+    private float[] near(float[] center, Random random) {
+        float[] vector = gaussian(random, 0.5f);
+        for (int i = 0; i < dimension; i++) {
+            vector[i] += center[i];
+        }
+        return DocVectorStore.normalize(vector);
+    }
+
+}
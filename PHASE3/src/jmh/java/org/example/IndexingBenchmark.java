@@ -0,0 +1,65 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Indexing throughput of the {@link Phase3#addDoc} path, one document per operation, so the score is in
+ * documents per second. Every iteration starts from an empty index; flushes and merges triggered by the
+ * added documents are part of the measurement, the final commit is not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IndexingBenchmark {
+
+    @Param("10000")
+    public int docs;
+
+    @Param("200")
+    public int docLength;
+
+    @Param("20000")
+    public int vocabulary;
+
+    private List<DocTuple> corpus;
+    private Directory directory;
+    private IndexWriter writer;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        corpus = new SyntheticCorpus(vocabulary).documents(docs, docLength);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        directory = new ByteBuffersDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()));
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public void addDoc() throws IOException {
+        Phase3.addDoc(writer, corpus.get(next));
+        next = (next + 1 == corpus.size()) ? 0 : next + 1;
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of a top 50 search per similarity. The queries are searched round robin, one per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"classic", "bm25", "lmjm", "embeddings"})
+    public String similarity;
+
+    @Param("10000")
+    public int docs;
+
+    @Param("200")
+    public int docLength;
+
+    @Param("20000")
+    public int vocabulary;
+
+    @Param("100")
+    public int queryCount;
+
+    @Param("4")
+    public int queryLength;
+
+    // Dimensions of the word vectors of the embeddings similarity
+    @Param("50")
+    public int layerSize;
+
+    private Directory directory;
+    private IndexReader reader;
+    private IndexSearcher searcher;
+    private Query[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ParseException {
+        SyntheticCorpus corpus = new SyntheticCorpus(vocabulary);
+        List<DocTuple> documents = corpus.documents(docs, docLength);
+        directory = SyntheticCorpus.index(documents);
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(similarity(reader));
+
+        QueryParser parser = new QueryParser("content", new WhitespaceAnalyzer());
+        String[] texts = corpus.queries(queryCount, queryLength);
+        queries = new Query[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            queries[i] = parser.parse(texts[i]);
+        }
+    }
+
+    private Similarity similarity(IndexReader reader) {
+        switch (similarity) {
+            case "classic":
+                return new ClassicSimilarity();
+            case "bm25":
+                return new BM25Similarity();
+            case "lmjm":
+                return new LMJelinekMercerSimilarity(0.1f);
+            case "embeddings":
+                Word2Vec vec = SyntheticCorpus.train(reader, layerSize);
+                return new WordEmbeddingsSimilarity(vec, "content", WordEmbeddingsSimilarity.Smoothing.MEAN);
+            default:
+                throw new IllegalArgumentException("Unknown similarity " + similarity);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws IOException {
+        Query query = queries[next];
+        next = (next + 1 == queries.length) ? 0 : next + 1;
+        return searcher.search(query, 50);
+    }
+
+}
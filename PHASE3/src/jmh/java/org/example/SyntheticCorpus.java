@@ -0,0 +1,129 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.deeplearning4j.models.embeddings.learning.impl.elements.SkipGram;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
+
+/**
+ * Reproducible synthetic corpora for the benchmarks. Terms are drawn from a Zipf distribution over a fixed
+ * vocabulary ("t0", "t1", ...) with a fixed seed, so every run of a benchmark sees exactly the same documents,
+ * queries and word vectors.
+ */
+public final class SyntheticCorpus {
+
+    // Zipf exponent of natural language term frequencies
+    private final static double ZIPF_EXPONENT = 1.07;
+    private final static long SEED = 42;
+
+    private final double[] cumulative;
+    private final Random random;
+
+    /**
+     * @param vocabulary : Number of distinct terms
+     * @param seed : Seed of the term sampling
+     */
+    public SyntheticCorpus(int vocabulary, long seed) {
+        this.cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < vocabulary; i++) {
+            cumulative[i] /= sum;
+        }
+        this.random = new Random(seed);
+    }
+
+    public SyntheticCorpus(int vocabulary) {
+        this(vocabulary, SEED);
+    }
+
+    /**          -------------------- text function --------------------
+     *
+     * @param length : Number of terms
+     * @return : Whitespace separated terms
+     */
+    public String text(int length) {
+        StringBuilder sb = new StringBuilder(length * 6);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(' ');
+            int term = Arrays.binarySearch(cumulative, random.nextDouble());
+            sb.append('t').append(term < 0 ? -term - 1 : term);
+        }
+        return sb.toString();
+    }
+
+    /**          -------------------- documents function --------------------
+     *
+     * @param count : Number of documents
+     * @param length : Number of terms of every document
+     * @return : Documents with the codes "1", "2", ...
+     */
+    public List<DocTuple> documents(int count, int length) {
+        List<DocTuple> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(new DocTuple(Integer.toString(i + 1), text(length)));
+        }
+        return documents;
+    }
+
+    /**          -------------------- queries function --------------------
+     *
+     * @param count : Number of queries
+     * @param length : Number of terms of every query
+     */
+    public String[] queries(int count, int length) {
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            queries[i] = text(length);
+        }
+        return queries;
+    }
+
+    /**          -------------------- index function --------------------
+     * Indexes the documents through {@link Phase3#addDoc} into a heap directory
+     */
+    public static Directory index(List<DocTuple> documents) throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+            for (DocTuple document : documents) {
+                Phase3.addDoc(writer, document);
+            }
+            writer.commit();
+        }
+        return directory;
+    }
+
+    /**          -------------------- train function --------------------
+     * Trains word vectors on the content field of the index with the settings of Phase3
+     */
+    public static Word2Vec train(IndexReader reader, int layerSize) {
+        Word2Vec vec = new Word2Vec.Builder()
+                .layerSize(layerSize)
+                .windowSize(15)
+                .minWordFrequency(1)
+                .epochs(1)
+                .workers(1)
+                .tokenizerFactory(new DefaultTokenizerFactory())
+                .iterate(new FieldValuesSentenceIterator(reader, "content"))
+                .elementsLearningAlgorithm(new SkipGram<>())
+                .seed(SEED)
+                .build();
+        vec.fit();
+        return vec;
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.Directory;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of turning the term vector of one document into a vector with {@link VectorizeUtils}, and of comparing
+ * two TF-IDF vectors, as dense arrays over the whole vocabulary and as {@link SparseVector}s. The documents are visited round robin, one per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VectorizeBenchmark {
+
+    @Param("2000")
+    public int docs;
+
+    @Param("200")
+    public int docLength;
+
+    @Param("20000")
+    public int vocabulary;
+
+    @Param("50")
+    public int layerSize;
+
+    // Number of documents whose term vectors are visited
+    @Param("100")
+    public int sample;
+
+    private Directory directory;
+    private IndexReader reader;
+    private Word2Vec vec;
+    private Terms fieldTerms;
+    private Terms[] docTerms;
+    private double[][] tfIdfVectors;
+    private TermOrdinals ordinals;
+    private SparseVector[] sparseVectors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = SyntheticCorpus.index(new SyntheticCorpus(vocabulary).documents(docs, docLength));
+        reader = DirectoryReader.open(directory);
+        vec = SyntheticCorpus.train(reader, layerSize);
+        fieldTerms = MultiFields.getTerms(reader, "content");
+
+        docTerms = new Terms[Math.min(sample, reader.maxDoc())];
+        tfIdfVectors = new double[docTerms.length][];
+        ordinals = TermOrdinals.of(fieldTerms);
+        sparseVectors = new SparseVector[docTerms.length];
+        for (int i = 0; i < docTerms.length; i++) {
+            docTerms[i] = reader.getTermVector(i, "content");
+            tfIdfVectors[i] = VectorizeUtils.toSparseTFIDFDoubleArray(docTerms[i], fieldTerms, reader.numDocs());
+            sparseVectors[i] = VectorizeUtils.toSparseTFIDFVector(docTerms[i], ordinals, reader.numDocs());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    private int nextDoc() {
+        int doc = next;
+        next = (next + 1 == docTerms.length) ? 0 : next + 1;
+        return doc;
+    }
+
+    @Benchmark
+    public INDArray toDenseAverageVector() throws IOException {
+        return VectorizeUtils.toDenseAverageVector(docTerms[nextDoc()], vec);
+    }
+
+    @Benchmark
+    public double[] toSparseTFIDFDoubleArray() throws IOException {
+        return VectorizeUtils.toSparseTFIDFDoubleArray(docTerms[nextDoc()], fieldTerms, reader.numDocs());
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        int doc = nextDoc();
+        return VectorizeUtils.cosineSimilarity(tfIdfVectors[doc], tfIdfVectors[(doc + 1) % tfIdfVectors.length]);
+    }
+
+    @Benchmark
+    public SparseVector toSparseTFIDFVector() throws IOException {
+        return VectorizeUtils.toSparseTFIDFVector(docTerms[nextDoc()], ordinals, reader.numDocs());
+    }
+
+    @Benchmark
+    public double sparseCosineSimilarity() {
+        int doc = nextDoc();
+        return sparseVectors[doc].cosine(sparseVectors[(doc + 1) % sparseVectors.length]);
+    }
+
+}
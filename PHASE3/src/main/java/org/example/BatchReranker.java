@@ -0,0 +1,238 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Reranks the candidates of a whole batch of queries by the cosine similarity of their dense vectors. The unit
+ * vectors of all distinct candidates are stacked into one matrix and multiplied with the matrix of all query
+ * vectors in a single GEMM, then the best k of every query are selected with a heap over primitive arrays.
+ */
+public final class BatchReranker {
+
+    private final List<LeafReaderContext> leaves;
+    private final int maxDoc;
+    private final EmbeddingLookup embeddings;
+    private final String fieldName;
+    private final DocVectorStore docVectors;
+    private final int dimension;
+
+    /**
+     * @param reader : The index the candidates come from
+     * @param embeddings : The word vectors, documents are vectorized from their term vectors without a store
+     * @param fieldName : The field with term vectors
+     * @param docVectors : The precomputed {@link DocVectorStore.Variant#AVERAGE} vectors are read from it, may be null
+     */
+    public BatchReranker(IndexReader reader, EmbeddingLookup embeddings, String fieldName, DocVectorStore docVectors) {
+        this.leaves = reader.leaves();
+        this.maxDoc = reader.maxDoc();
+        this.embeddings = embeddings;
+        this.fieldName = fieldName;
+        this.docVectors = docVectors;
+        this.dimension = embeddings.dimension();
+    }
+
+    /**          -------------------- rerank function --------------------
+     *
+     * @param unitQueries : The unit length vector of every query, null for queries without a vector
+     * @param candidates : The first stage hits of every query, null for queries that failed
+     * @param k : Number of documents to keep per query
+     * @return : The ranking of every query in the order of the queries, null where the candidates were null
+     */
+    public Ranking[] rerank(float[][] unitQueries, TopDocs[] candidates, int k) throws IOException {
+        // Every document gets one row, however many queries retrieved it
+        int[] rows = new int[maxDoc];
+        Arrays.fill(rows, -1);
+        int total = 0;
+        for (TopDocs hits : candidates) {
+            if (hits != null) total += hits.scoreDocs.length;
+        }
+        int[] rowDocs = new int[total];
+        int count = 0;
+        for (TopDocs hits : candidates) {
+            if (hits == null) continue;
+            for (ScoreDoc scoreDoc : hits.scoreDocs) {
+                if (rows[scoreDoc.doc] == -1) {
+                    rows[scoreDoc.doc] = count;
+                    rowDocs[count++] = scoreDoc.doc;
+                }
+            }
+        }
+
+        float[][] scores = (count > 0) ? multiply(documentMatrix(rowDocs, count), queryMatrix(unitQueries)) : new float[0][];
+
+        Ranking[] rankings = new Ranking[candidates.length];
+        TopK topK = new TopK(k);
+        for (int q = 0; q < candidates.length; q++) {
+            if (candidates[q] == null) continue;
+            ScoreDoc[] hits = candidates[q].scoreDocs;
+            topK.clear();
+            for (int rank = 0; rank < hits.length; rank++) {
+                topK.offer(rank, scores[rows[hits[rank].doc]][q]);
+            }
+            rankings[q] = topK.drain(hits);
+        }
+        return rankings;
+    }
+
+    /**
+     * (documents x dimension) times the transpose of (queries x dimension), one BLAS call for the whole batch
+     */
+    private static float[][] multiply(INDArray documents, INDArray queries) {
+        return Nd4j.gemm(documents, queries, false, true).toFloatMatrix();
+    }
+
+    private INDArray documentMatrix(int[] rowDocs, int count) throws IOException {
+        float[] matrix = new float[count * dimension];
+        float[] vector = new float[dimension];
+        DocVectorStore.LeafVectors[] leafVectors = new DocVectorStore.LeafVectors[leaves.size()];
+        for (int row = 0; row < count; row++) {
+            int leaf = ReaderUtil.subIndex(rowDocs[row], leaves);
+            LeafReaderContext context = leaves.get(leaf);
+            int doc = rowDocs[row] - context.docBase;
+            if (docVectors != null) {
+                if (leafVectors[leaf] == null) leafVectors[leaf] = docVectors.vectors(context.reader());
+                leafVectors[leaf].read(DocVectorStore.Variant.AVERAGE, doc, vector);
+            } else if (VectorizeUtils.toDenseMeanVector(context.reader().getTermVector(doc, fieldName), embeddings, vector) != null) {
+                DocVectorStore.normalize(vector);
+            }
+            // A zero row scores 0 against every query
+            System.arraycopy(vector, 0, matrix, row * dimension, dimension);
+        }
+        return Nd4j.create(matrix, new long[]{count, dimension}, 'c');
+    }
+
+    private INDArray queryMatrix(float[][] unitQueries) {
+        float[] matrix = new float[unitQueries.length * dimension];
+        for (int q = 0; q < unitQueries.length; q++) {
+            if (unitQueries[q] != null) {
+                System.arraycopy(unitQueries[q], 0, matrix, q * dimension, dimension);
+            }
+        }
+        return Nd4j.create(matrix, new long[]{unitQueries.length, dimension}, 'c');
+    }
+
+    /**
+     * The reranked hits of one query as parallel arrays of doc ids and cosine similarities, best first
+     */
+    public final static class Ranking {
+        public final int[] docs;
+        public final double[] scores;
+        public final int count;
+
+        private Ranking(int[] docs, double[] scores) {
+            this.docs = docs;
+            this.scores = scores;
+            this.count = docs.length;
+        }
+
+        /**
+         * @param hits : Hits already in their final order, e.g. of a {@link HybridQuery}
+         */
+        static Ranking of(TopDocs hits) {
+            int[] docs = new int[hits.scoreDocs.length];
+            double[] scores = new double[docs.length];
+            for (int i = 0; i < docs.length; i++) {
+                docs[i] = hits.scoreDocs[i].doc;
+                scores[i] = hits.scoreDocs[i].score;
+            }
+            return new Ranking(docs, scores);
+        }
+    }
+
+    /**
+     * Bounded binary min-heap of first stage ranks keyed by score, the root is the worst kept hit. Ties are broken
+     * by the first stage rank, so equal scores keep their first stage order.
+     */
+    private final static class TopK {
+        private final int k;
+        private final int[] ranks;
+        private final float[] scores;
+        private int size;
+
+        TopK(int k) {
+            this.k = k;
+            this.ranks = new int[k];
+            this.scores = new float[k];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void offer(int rank, float score) {
+            if (size < k) {
+                ranks[size] = rank;
+                scores[size] = score;
+                up(size++);
+            } else if (k > 0 && worse(ranks[0], scores[0], rank, score)) {
+                ranks[0] = rank;
+                scores[0] = score;
+                down(0);
+            }
+        }
+
+        /**
+         * Empties the heap into a ranking, the worst hit is removed first and goes last
+         */
+        Ranking drain(ScoreDoc[] hits) {
+            int[] docs = new int[size];
+            double[] values = new double[size];
+            while (size > 0) {
+                int last = --size;
+                docs[last] = hits[ranks[0]].doc;
+                values[last] = scores[0];
+                ranks[0] = ranks[last];
+                scores[0] = scores[last];
+                down(0);
+            }
+            return new Ranking(docs, values);
+        }
+
+        // true if (rankA, scoreA) ranks below (rankB, scoreB)
+        private static boolean worse(int rankA, float scoreA, int rankB, float scoreB) {
+            int cmp = Float.compare(scoreA, scoreB);
+            return cmp < 0 || (cmp == 0 && rankA > rankB);
+        }
+
+        private void up(int i) {
+            int rank = ranks[i];
+            float score = scores[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(rank, score, ranks[parent], scores[parent])) break;
+                ranks[i] = ranks[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ranks[i] = rank;
+            scores[i] = score;
+        }
+
+        private void down(int i) {
+            int rank = ranks[i];
+            float score = scores[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && worse(ranks[child + 1], scores[child + 1], ranks[child], scores[child])) child++;
+                if (!worse(ranks[child], scores[child], rank, score)) break;
+                ranks[i] = ranks[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ranks[i] = rank;
+            scores[i] = score;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer settings for loading a whole corpus at once (-DbulkLoad=true). Documents are buffered in a large RAM
+ * buffer instead of being flushed every 1000 documents, segments are written as plain files instead of
+ * compound files, and merges run on several threads without IO throttling. The load can end with a
+ * forceMerge to a fixed number of segments. Without -DbulkLoad the writer keeps the default settings.
+ */
+public final class BulkLoad {
+
+    private final static Logger LOG = LoggerFactory.getLogger(BulkLoad.class);
+
+    // Enables the profile (-DbulkLoad=true)
+    private final static boolean ENABLED = Boolean.getBoolean("bulkLoad");
+    // Size of the indexing buffer in MB (-DramBufferMB=N), documents are flushed to a segment when it is full
+    private final static double RAM_BUFFER_MB = Double.parseDouble(System.getProperty("ramBufferMB", "256"));
+    // Number of segments left by the final forceMerge (-DforceMergeSegments=N), 0 skips it
+    private final static int FORCE_MERGE_SEGMENTS = Integer.getInteger("forceMergeSegments", 0);
+    // Merge threads (-DmergeThreads=N)
+    private final static int MERGE_THREADS = Integer.getInteger("mergeThreads",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+    private BulkLoad() {
+        // no public constructors
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**          -------------------- configure function --------------------
+     *
+     * @param config : The config of the writer that loads the corpus
+     * @return : The same config, tuned for the load when the profile is enabled
+     */
+    public static IndexWriterConfig configure(IndexWriterConfig config) {
+        return configure(config, 1);
+    }
+
+    /**
+     * @param config : The config of one of several writers that load the corpus together
+     * @param writers : Number of writers, they share the RAM buffer
+     */
+    public static IndexWriterConfig configure(IndexWriterConfig config, int writers) {
+        if (!ENABLED) return config;
+
+        config.setRAMBufferSizeMB(Math.max(16, RAM_BUFFER_MB / writers));
+        config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        config.setUseCompoundFile(false);
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        // FLUSHED SEGMENTS ARE LARGE ALREADY, FEWER AND WIDER MERGES WHILE LOADING
+        mergePolicy.setSegmentsPerTier(20);
+        mergePolicy.setMaxMergeAtOnce(20);
+        mergePolicy.setFloorSegmentMB(Math.max(2, RAM_BUFFER_MB / 8));
+        mergePolicy.setNoCFSRatio(0);
+        config.setMergePolicy(mergePolicy);
+
+        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+        mergeScheduler.setMaxMergesAndThreads(MERGE_THREADS + 2, MERGE_THREADS);
+        mergeScheduler.disableAutoIOThrottle();
+        config.setMergeScheduler(mergeScheduler);
+        return config;
+    }
+
+    /**          -------------------- finish function --------------------
+     * Force merges the index to -DforceMergeSegments segments when the profile asks for it
+     *
+     * @param writer : The writer after the last document was added, before it is closed
+     */
+    public static void finish(IndexWriter writer) throws IOException {
+        if (!ENABLED || FORCE_MERGE_SEGMENTS < 1) return;
+        long start = System.nanoTime();
+        writer.forceMerge(FORCE_MERGE_SEGMENTS);
+        LOG.info("MERGED TO {} SEGMENT(S) IN {} ms", FORCE_MERGE_SEGMENTS, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**          -------------------- report function --------------------
+     * Prints the number, documents and size of the segments of the last commit when the profile is enabled
+     */
+    public static void report(Directory directory) throws IOException {
+        if (!ENABLED) return;
+        SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+        long bytes = 0;
+        int compound = 0;
+        for (SegmentCommitInfo segment : infos) {
+            bytes += segment.sizeInBytes();
+            if (segment.info.getUseCompoundFile()) compound++;
+        }
+        LOG.info(String.format(Locale.ROOT, "%d SEGMENT(S), %d COMPOUND, %d DOCS, %.1f MB",
+                infos.size(), compound, infos.totalMaxDoc(), bytes / (1024.0 * 1024.0)));
+        for (SegmentCommitInfo segment : infos) {
+            LOG.info(String.format(Locale.ROOT, "  %s: %d docs, %d deleted, %.1f MB", segment.info.name,
+                    segment.info.maxDoc(), segment.getDelCount(), segment.sizeInBytes() / (1024.0 * 1024.0)));
+        }
+    }
+
+}
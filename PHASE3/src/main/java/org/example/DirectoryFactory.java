@@ -0,0 +1,101 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens the storage of the indexes, selected with -Ddirectory=fs|mmap|ram|nrt_caching:
+ * FS lets Lucene pick the best file system implementation, MMAP maps the index files into memory and suits
+ * large read-mostly indexes, RAM keeps the whole index on the heap and never touches the disk (the index is
+ * gone when the run ends), and NRT_CACHING keeps small freshly flushed segments on the heap until they are
+ * merged or committed, which helps with frequent small flushes.
+ */
+public final class DirectoryFactory {
+
+    private final static Logger LOG = LoggerFactory.getLogger(DirectoryFactory.class);
+
+    public enum Backend {
+        FS, MMAP, RAM, NRT_CACHING
+    }
+
+    // Storage of the indexes (-Ddirectory=fs|mmap|ram|nrt_caching)
+    private final static Backend BACKEND = Backend.valueOf(System.getProperty("directory", "fs").toUpperCase(Locale.ROOT));
+    // Largest merged segment the NRTCachingDirectory keeps on the heap (-DnrtMaxMergeMB=N)
+    private final static double NRT_MAX_MERGE_MB = Double.parseDouble(System.getProperty("nrtMaxMergeMB", "5"));
+    // Heap used by the NRTCachingDirectory for all cached files (-DnrtMaxCachedMB=N)
+    private final static double NRT_MAX_CACHED_MB = Double.parseDouble(System.getProperty("nrtMaxCachedMB", "60"));
+
+    private DirectoryFactory() {
+        // no public constructors
+    }
+
+    public static Backend backend() {
+        return BACKEND;
+    }
+
+    /**          -------------------- open function --------------------
+     *
+     * @param path : Location of the index, ignored by the RAM backend
+     * @return : The directory of the configured backend
+     */
+    public static Directory open(Path path) throws IOException {
+        return open(BACKEND, path);
+    }
+
+    public static Directory open(Backend backend, Path path) throws IOException {
+        switch (backend) {
+            case MMAP:
+                return new MMapDirectory(path);
+            case RAM:
+                return new ByteBuffersDirectory();
+            case NRT_CACHING:
+                return new NRTCachingDirectory(FSDirectory.open(path), NRT_MAX_MERGE_MB, NRT_MAX_CACHED_MB);
+            default:
+                return FSDirectory.open(path);
+        }
+    }
+
+    /**          -------------------- report function --------------------
+     * Prints the size of the index files on disk and on the heap
+     */
+    public static void report(Directory directory) throws IOException {
+        LOG.info(describe(directory));
+    }
+
+    /**
+     * @return : e.g. "Directory: MMapDirectory, 14 files, 5.4 MB on disk, 0.0 MB on heap"
+     */
+    public static String describe(Directory directory) throws IOException {
+        Directory unwrapped = FilterDirectory.unwrap(directory);
+        String[] files = directory.listAll();
+        long total = 0;
+        for (String file : files) {
+            try {
+                total += directory.fileLength(file);
+            } catch (NoSuchFileException e) {
+                // deleted by a merge while listing
+            }
+        }
+        long heap = 0;
+        if (directory instanceof NRTCachingDirectory) {
+            heap = ((NRTCachingDirectory) directory).ramBytesUsed();
+        } else if (unwrapped instanceof ByteBuffersDirectory) {
+            heap = total;
+        }
+        long disk = (unwrapped instanceof FSDirectory) ? total - heap : 0;
+        return String.format(Locale.ROOT, "Directory: %s, %d files, %.1f MB on disk, %.1f MB on heap",
+                directory.getClass().getSimpleName(), files.length, disk / (1024.0 * 1024.0), heap / (1024.0 * 1024.0));
+    }
+
+}
@@ -0,0 +1,343 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dense document vectors computed once per segment and kept in a side file next to the index, so that scoring a
+ * hit is a single vector read plus a dot product instead of walking its term vector and looking up every word.
+ *
+ * Every segment gets a file dvec_[segment id]_[model key].vec holding, in doc id order, the unit length float32
+ * vector of every {@link Variant} of every document. Files are memory mapped by FSDirectory. A segment is
+ * vectorized the first time it is searched, merged segments already when the merge completes through the
+ * {@link #warmer()}, and {@link #purge} removes the files of segments that no longer exist. The file names do not
+ * start with "_", so the IndexWriter never touches them.
+ */
+public class DocVectorStore implements Closeable {
+
+    private final static Logger LOG = LoggerFactory.getLogger(DocVectorStore.class);
+
+    private final static String CODEC = "DocVectorStore";
+    private final static int FORMAT = 1;
+    private final static String PREFIX = "dvec_";
+    private final static String EXTENSION = ".vec";
+    // Part of the key of the embeddings vectorizer, changed whenever its vectors change so older files are not read
+    private final static String VECTORIZATION = "smoothing-n=maxDoc";
+
+    /**
+     * The stored vectors of a document: one per {@link WordEmbeddingsSimilarity.Smoothing}, and AVERAGE, the plain
+     * mean of the word vectors of {@link VectorizeUtils#toDenseAverageVector(Terms, Word2Vec)}
+     */
+    public enum Variant {
+        MEAN, IDF, TF, TF_IDF, AVERAGE;
+
+        public static Variant of(WordEmbeddingsSimilarity.Smoothing smoothing) {
+            return valueOf(smoothing.name());
+        }
+    }
+
+    /**
+     * Computes the vectors of a document
+     */
+    public interface Vectorizer {
+        int dimension();
+
+        /**
+         * @return : Identifies the model and the field, stores of different models never share files
+         */
+        String key();
+
+        /**
+         * @param vectors : One array of {@link #dimension()} floats per {@link Variant}, to fill in
+         */
+        void vectorize(LeafReader reader, int doc, float[][] vectors) throws IOException;
+    }
+
+    private final Directory directory;
+    private final Vectorizer vectorizer;
+    private final String suffix;
+    // Open files by name, shared by all searches of the segment
+    private final Map<String, IndexInput> inputs = new ConcurrentHashMap<>();
+
+    public DocVectorStore(Directory directory, Vectorizer vectorizer) {
+        this.directory = directory;
+        this.vectorizer = vectorizer;
+        this.suffix = "_" + vectorizer.key() + EXTENSION;
+    }
+
+    public int dimension() {
+        return vectorizer.dimension();
+    }
+
+    /**          -------------------- vectors function --------------------
+     *
+     * @param reader : A segment of the index
+     * @return : The vectors of the segment, vectorized first if there are none yet. The returned instance must only
+     *           be used by one thread
+     */
+    public LeafVectors vectors(LeafReader reader) throws IOException {
+        String name = fileName(reader);
+        IndexInput input = inputs.get(name);
+        if (input == null) {
+            input = open(reader, name);
+        }
+        return new LeafVectors(input.clone(), vectorizer.dimension());
+    }
+
+    /**
+     * Vectorizes all segments of the reader that have no vectors yet
+     */
+    public void warm(IndexReader reader) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            vectors(context.reader());
+        }
+    }
+
+    /**
+     * @return : Vectorizes the segments written by merges before the writer publishes them
+     */
+    public IndexWriter.IndexReaderWarmer warmer() {
+        return this::vectors;
+    }
+
+    /**          -------------------- purge function --------------------
+     * Deletes the vector files of segments the reader does not contain, and of other models. Must not run
+     * while searches use vectors of those segments
+     */
+    public synchronized void purge(IndexReader reader) throws IOException {
+        Set<String> live = new HashSet<>();
+        for (LeafReaderContext context : reader.leaves()) {
+            live.add(fileName(context.reader()));
+        }
+        for (String file : directory.listAll()) {
+            if (file.startsWith(PREFIX) && !live.contains(file)) {
+                IndexInput input = inputs.remove(file);
+                IOUtils.close(input);
+                directory.deleteFile(file);
+                LOG.debug("DELETED {}", file);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOUtils.close(inputs.values());
+        inputs.clear();
+    }
+
+    private synchronized IndexInput open(LeafReader reader, String name) throws IOException {
+        IndexInput input = inputs.get(name);
+        if (input != null) return input;
+        try {
+            input = directory.openInput(name, IOContext.READ);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            write(reader, name);
+            input = directory.openInput(name, IOContext.READ);
+        }
+        try {
+            CodecUtil.checkHeader(input, CODEC, FORMAT, FORMAT);
+            int dimension = input.readInt();
+            int maxDoc = input.readInt();
+            if (dimension != vectorizer.dimension() || maxDoc != reader.maxDoc()) {
+                throw new IOException("Vector file " + name + " does not match its segment");
+            }
+            // Checks that the file is complete, the checksum itself is not verified
+            CodecUtil.retrieveChecksum(input);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+        inputs.put(name, input);
+        return input;
+    }
+
+    private void write(LeafReader reader, String name) throws IOException {
+        long start = System.nanoTime();
+        float[][] vectors = new float[Variant.values().length][vectorizer.dimension()];
+        // Written to a temporary file first, a crash never leaves a truncated vector file behind
+        IndexOutput out = directory.createTempOutput(PREFIX + "tmp", vectorizer.key(), IOContext.DEFAULT);
+        boolean success = false;
+        try {
+            CodecUtil.writeHeader(out, CODEC, FORMAT);
+            out.writeInt(vectorizer.dimension());
+            out.writeInt(reader.maxDoc());
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                vectorizer.vectorize(reader, doc, vectors);
+                for (float[] vector : vectors) {
+                    for (float value : normalize(vector)) {
+                        out.writeInt(Float.floatToRawIntBits(value));
+                    }
+                }
+            }
+            CodecUtil.writeFooter(out);
+            out.close();
+            directory.sync(Collections.singleton(out.getName()));
+            directory.rename(out.getName(), name);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(out);
+                IOUtils.deleteFilesIgnoringExceptions(directory, out.getName());
+            }
+        }
+        LOG.info("VECTORIZED {} DOCS OF SEGMENT {} IN {} ms", reader.maxDoc(), name, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    String fileName(LeafReader reader) {
+        LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+        if (!(unwrapped instanceof SegmentReader)) {
+            throw new IllegalArgumentException("Doc vectors are stored per segment, got " + reader);
+        }
+        byte[] id = ((SegmentReader) unwrapped).getSegmentInfo().info.getId();
+        return PREFIX + StringHelper.idToString(id) + suffix;
+    }
+
+    /**
+     * Scales the vector to unit length, a zero vector stays zero
+     */
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0 && Double.isFinite(norm)) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        } else {
+            Arrays.fill(vector, 0f);
+        }
+        return vector;
+    }
+
+    /**
+     * The vectors of one segment
+     */
+    public final static class LeafVectors {
+        // Doc id major: the vectors of all variants of a document follow each other
+        private final RandomAccessInput data;
+        private final int dimension;
+        private final long docBytes;
+
+        private LeafVectors(IndexInput input, int dimension) throws IOException {
+            this.dimension = dimension;
+            long start = CodecUtil.headerLength(CODEC) + 2 * Integer.BYTES;
+            this.docBytes = (long) Variant.values().length * dimension * Integer.BYTES;
+            this.data = input.randomAccessSlice(start, input.length() - CodecUtil.footerLength() - start);
+        }
+
+        /**
+         * @param query : A unit length query vector, see {@link DocVectorStore#normalize}
+         * @return : The cosine similarity of the query and the document
+         */
+        public float dot(Variant variant, int doc, float[] query) throws IOException {
+            long offset = offset(variant, doc);
+            float dot = 0;
+            for (int i = 0; i < dimension; i++, offset += Integer.BYTES) {
+                dot += Float.intBitsToFloat(data.readInt(offset)) * query[i];
+            }
+            return dot;
+        }
+
+        public float[] read(Variant variant, int doc, float[] into) throws IOException {
+            long offset = offset(variant, doc);
+            for (int i = 0; i < dimension; i++, offset += Integer.BYTES) {
+                into[i] = Float.intBitsToFloat(data.readInt(offset));
+            }
+            return into;
+        }
+
+        private long offset(Variant variant, int doc) {
+            return doc * docBytes + (long) variant.ordinal() * dimension * Integer.BYTES;
+        }
+    }
+
+    /**          -------------------- word2Vec function --------------------
+     *
+     * @param word2Vec : The model, its vocabulary and vectors are hashed into the key of the files
+     * @param fieldName : The field with term vectors the documents are vectorized from
+     * @return : Computes the vectors exactly like the query time paths of {@link WordEmbeddingsSimilarity} and Phase3
+     */
+    public static Vectorizer word2Vec(Word2Vec word2Vec, String fieldName) {
+        return embeddings(EmbeddingTable.of(word2Vec), fieldName);
+    }
+
+    /**          -------------------- embeddings function --------------------
+     *
+     * @param embeddings : The word vectors, their key is part of the key of the files
+     * @param fieldName : The field with term vectors the documents are vectorized from
+     * @return : Vectorizes straight into the buffers of the writer, nothing is allocated per term or document
+     */
+    public static Vectorizer embeddings(EmbeddingLookup embeddings, String fieldName) {
+        String key = key(embeddings, fieldName);
+        WordEmbeddingsSimilarity.Smoothing[] smoothings = WordEmbeddingsSimilarity.Smoothing.values();
+        return new Vectorizer() {
+            @Override
+            public int dimension() {
+                return embeddings.dimension();
+            }
+
+            @Override
+            public String key() {
+                return key;
+            }
+
+            @Override
+            public void vectorize(LeafReader reader, int doc, float[][] vectors) throws IOException {
+                Terms docTerms = reader.getTermVector(doc, fieldName);
+                // maxDoc like the query vector, and unlike numDocs it never changes for a segment, so deletes
+                // do not make the stored vectors stale
+                for (WordEmbeddingsSimilarity.Smoothing smoothing : smoothings) {
+                    VectorizeUtils.toDenseAverageVector(docTerms, reader.maxDoc(), embeddings, smoothing, vectors[Variant.of(smoothing).ordinal()]);
+                }
+                // Stays zero when none of the words of the document has a vector
+                VectorizeUtils.toDenseMeanVector(docTerms, embeddings, vectors[Variant.AVERAGE.ordinal()]);
+            }
+        };
+    }
+
+    private static String key(EmbeddingLookup embeddings, String fieldName) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        digest.update(fieldName.getBytes(StandardCharsets.UTF_8));
+        digest.update(embeddings.key().getBytes(StandardCharsets.UTF_8));
+        digest.update(VECTORIZATION.getBytes(StandardCharsets.UTF_8));
+        return StringHelper.idToString(digest.digest()).substring(0, 12);
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.example;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Word vectors addressed by a dense integer id. Terms are looked up by their UTF-8 bytes, straight from a
+ * {@link org.apache.lucene.index.TermsEnum}, and the kernels read the vectors into caller owned buffers, so scoring
+ * allocates nothing per term. Implementations are read-only and may be shared by any number of threads.
+ */
+public interface EmbeddingLookup {
+
+    int dimension();
+
+    /**
+     * @return : The number of words, ids run from 0 to size() - 1
+     */
+    int size();
+
+    /**
+     * @return : The id of the word, -1 if it has no vector
+     */
+    int id(BytesRef word);
+
+    default int id(String word) {
+        return id(new BytesRef(word));
+    }
+
+    /**
+     * @return : The UTF-8 bytes of the word with the id
+     */
+    BytesRef word(int id);
+
+    /**
+     * accumulator += scale * vector(id)
+     */
+    void addTo(int id, float scale, float[] accumulator);
+
+    /**
+     * @return : into, holding the vector of the word
+     */
+    float[] get(int id, float[] into);
+
+    /**
+     * Identifies the vectors, e.g. part of the file names of a {@link DocVectorStore}
+     */
+    String key();
+
+}
@@ -0,0 +1,258 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeSet;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * {@link EmbeddingLookup} holding the vectors in one flat float table outside of the Java heap, row i is the vector of
+ * word i, so millions of vectors neither count against the heap nor get copied by the garbage collector. Words are
+ * mapped to ids by an open addressing hash table over their UTF-8 bytes. The table is either copied into direct
+ * buffers or memory mapped from a file written by {@link MappedEmbeddings}.
+ */
+public final class EmbeddingTable implements EmbeddingLookup {
+
+    private final int dimension;
+    private final int size;
+    // A direct buffer holds at most 2 GB, larger tables are split into chunks of whole rows
+    private final FloatBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final Words words;
+    private final String key;
+
+    /**
+     * The ids of the words of a table
+     */
+    interface Words {
+        /**
+         * @return : The id of the word, -1 if it is not in the table
+         */
+        int find(BytesRef word);
+
+        BytesRef word(int id);
+    }
+
+    EmbeddingTable(int dimension, int size, FloatBuffer[] chunks, int rowsPerChunk, Words words, String key) {
+        this.dimension = dimension;
+        this.size = size;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.words = words;
+        this.key = key;
+    }
+
+    /**          -------------------- of function --------------------
+     *
+     * @param word2Vec : The model, copied once, it is not used by the table afterwards
+     * @return : The vectors of every word of the vocabulary of the model
+     */
+    public static EmbeddingTable of(Word2Vec word2Vec) {
+        // Sorted, the same vocabulary always gets the same ids
+        TreeSet<String> vocabulary = new TreeSet<>(word2Vec.vocab().words());
+        Builder builder = new Builder(word2Vec.getLayerSize(), vocabulary.size());
+        for (String word : vocabulary) {
+            INDArray vector = word2Vec.getLookupTable().vector(word);
+            if (vector != null) {
+                builder.add(new BytesRef(word), vector.toFloatVector());
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int id(BytesRef word) {
+        return words.find(word);
+    }
+
+    @Override
+    public BytesRef word(int id) {
+        return words.word(id);
+    }
+
+    @Override
+    public void addTo(int id, float scale, float[] accumulator) {
+        FloatBuffer chunk = chunks[id / rowsPerChunk];
+        int offset = (id % rowsPerChunk) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            accumulator[i] += scale * chunk.get(offset + i);
+        }
+    }
+
+    @Override
+    public float[] get(int id, float[] into) {
+        FloatBuffer chunk = chunks[id / rowsPerChunk];
+        int offset = (id % rowsPerChunk) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            into[i] = chunk.get(offset + i);
+        }
+        return into;
+    }
+
+    @Override
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Collects the words and vectors of a table, each word once
+     */
+    public final static class Builder {
+        private final int dimension;
+        private final int rowsPerChunk;
+        private final WordIds words;
+        private final MessageDigest digest;
+        private final byte[] scratch = new byte[Integer.BYTES];
+        private FloatBuffer[] chunks = new FloatBuffer[0];
+        private int size;
+
+        public Builder(int dimension, int expectedSize) {
+            this.dimension = dimension;
+            this.rowsPerChunk = Math.max(1, Math.min(expectedSize, (Integer.MAX_VALUE / Float.BYTES) / dimension));
+            this.words = new WordIds(expectedSize);
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not available", e);
+            }
+        }
+
+        /**
+         * @return : The id of the word
+         */
+        public int add(BytesRef word, float[] vector) {
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Expected " + dimension + " dimensions, got " + vector.length + " for " + word.utf8ToString());
+            }
+            int id = words.add(word.bytes, word.offset, word.length);
+            if (id != size) {
+                throw new IllegalArgumentException("Duplicate word " + word.utf8ToString());
+            }
+            int chunk = size / rowsPerChunk;
+            if (chunk == chunks.length) {
+                chunks = ArrayUtil.growExact(chunks, chunk + 1);
+                chunks[chunk] = ByteBuffer.allocateDirect(rowsPerChunk * dimension * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            int offset = (size % rowsPerChunk) * dimension;
+            digest.update(word.bytes, word.offset, word.length);
+            for (int i = 0; i < dimension; i++) {
+                chunks[chunk].put(offset + i, vector[i]);
+                int bits = Float.floatToRawIntBits(vector[i]);
+                scratch[0] = (byte) (bits >>> 24);
+                scratch[1] = (byte) (bits >>> 16);
+                scratch[2] = (byte) (bits >>> 8);
+                scratch[3] = (byte) bits;
+                digest.update(scratch);
+            }
+            return size++;
+        }
+
+        public EmbeddingTable build() {
+            String key = StringHelper.idToString(digest.digest()).substring(0, 12);
+            return new EmbeddingTable(dimension, size, chunks, rowsPerChunk, words, key);
+        }
+    }
+
+    /**
+     * Open addressing hash table from the UTF-8 bytes of a word to its id, read-only once built
+     */
+    final static class WordIds implements Words {
+        private byte[] bytes = new byte[1024];
+        private int[] starts = new int[17];
+        private int count;
+        // id + 1 per slot, 0 is empty
+        private int[] slots;
+        private int mask;
+
+        // Power of two, at most half full
+        static int capacity(int size) {
+            return Integer.highestOneBit(Math.max(16, size * 2 - 1)) << 1;
+        }
+
+        static int hash(byte[] word, int offset, int length) {
+            return StringHelper.murmurhash3_x86_32(word, offset, length, 0);
+        }
+
+        WordIds(int expectedSize) {
+            int capacity = capacity(expectedSize);
+            slots = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        @Override
+        public int find(BytesRef word) {
+            return find(word.bytes, word.offset, word.length);
+        }
+
+        @Override
+        public BytesRef word(int id) {
+            return new BytesRef(bytes, starts[id], starts[id + 1] - starts[id]);
+        }
+
+        int find(byte[] word, int offset, int length) {
+            int slot = hash(word, offset, length) & mask;
+            while (true) {
+                int id = slots[slot] - 1;
+                if (id == -1) return -1;
+                if (equals(id, word, offset, length)) return id;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int add(byte[] word, int offset, int length) {
+            int existing = find(word, offset, length);
+            if (existing != -1) return existing;
+            if (2 * (count + 1) > slots.length) rehash();
+            bytes = ArrayUtil.grow(bytes, starts[count] + length);
+            System.arraycopy(word, offset, bytes, starts[count], length);
+            starts = ArrayUtil.grow(starts, count + 2);
+            starts[count + 1] = starts[count] + length;
+            insert(count, hash(word, offset, length));
+            return count++;
+        }
+
+        private void insert(int id, int hash) {
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            mask = slots.length - 1;
+            for (int id = 0; id < count; id++) {
+                insert(id, hash(bytes, starts[id], starts[id + 1] - starts[id]));
+            }
+        }
+
+        private boolean equals(int id, byte[] word, int offset, int length) {
+            int start = starts[id];
+            if (starts[id + 1] - start != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[start + i] != word[offset + i]) return false;
+            }
+            return true;
+        }
+    }
+
+}
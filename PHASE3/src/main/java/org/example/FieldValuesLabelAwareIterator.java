@@ -1,9 +1,5 @@
 package org.example;
 
-import java.io.IOException;
-import java.util.Collections;
-
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.deeplearning4j.text.documentiterator.LabelAwareIterator;
 import org.deeplearning4j.text.documentiterator.LabelledDocument;
@@ -11,45 +7,40 @@ import org.deeplearning4j.text.documentiterator.LabelsSource;
 
 /**
  * Iterate over documents fetched from the index, labels are composed by "doc_" prefix plus each document number.
+ * Live documents only, in doc id order; the stored fields are read ahead per segment by a {@link StoredFieldPrefetcher}
  */
 public class FieldValuesLabelAwareIterator implements LabelAwareIterator {
 
-  private final IndexReader reader;
-  private final String field;
+  private final StoredFieldPrefetcher prefetcher;
   private int currentId;
 
   public FieldValuesLabelAwareIterator(IndexReader reader, String field) {
-    this.reader = reader;
-    this.field = field;
+    this.prefetcher = new StoredFieldPrefetcher(reader, field);
     this.currentId = 0;
   }
 
   @Override
   public boolean hasNextDocument() {
-    return currentId < reader.maxDoc();
+    return prefetcher.hasNext();
   }
 
   @Override
   public LabelledDocument nextDocument() {
-    if (!hasNext()) {
+    StoredFieldPrefetcher.Value next = prefetcher.next();
+    if (next == null) {
       return null;
     }
-    try {
-      LabelledDocument labelledDocument = new LabelledDocument();
-      Document document = reader.document(currentId, Collections.singleton(field));
-      labelledDocument.addLabel("doc_" + currentId);
-      labelledDocument.setId("doc_" + currentId);
-      labelledDocument.setContent(document.getField(field).stringValue());
-      return labelledDocument;
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    } finally {
-      currentId++;
-    }
+    currentId = next.doc;
+    LabelledDocument labelledDocument = new LabelledDocument();
+    labelledDocument.addLabel("doc_" + currentId);
+    labelledDocument.setId("doc_" + currentId);
+    labelledDocument.setContent(next.value);
+    return labelledDocument;
   }
 
   @Override
   public void reset() {
+    prefetcher.reset();
     currentId = 0;
   }
 
@@ -60,6 +51,7 @@ public class FieldValuesLabelAwareIterator implements LabelAwareIterator {
 
   @Override
   public void shutdown() {
+    prefetcher.close();
   }
 
   @Override
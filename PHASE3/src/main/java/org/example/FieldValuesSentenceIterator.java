@@ -1,58 +1,46 @@
 package org.example;
 
-import java.io.IOException;
-import java.util.Collections;
-
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.deeplearning4j.models.sequencevectors.interfaces.SequenceIterator;
 import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
 import org.deeplearning4j.text.sentenceiterator.SentencePreProcessor;
 
 /**
- * {@link SequenceIterator} over field values of Lucene documents
+ * {@link SequenceIterator} over field values of Lucene documents. Live documents only, in doc id order; the stored
+ * fields are read ahead per segment by a {@link StoredFieldPrefetcher}
  */
 public class FieldValuesSentenceIterator implements SentenceIterator {
 
-  private final IndexReader reader;
-  private final String field;
-  private int currentId;
+  private final StoredFieldPrefetcher prefetcher;
   private SentencePreProcessor preProcessor;
 
   public FieldValuesSentenceIterator(IndexReader reader, String field) {
-    this.reader = reader;
-    this.field = field;
-    this.currentId = 0;
+    this.prefetcher = new StoredFieldPrefetcher(reader, field);
   }
 
-    @Override
+  @Override
   public String nextSentence() {
-    if (!hasNext()) {
+    StoredFieldPrefetcher.Value next = prefetcher.next();
+    if (next == null) {
       return null;
     }
-    try {
-      Document document = reader.document(currentId, Collections.singleton(field));
-      String sentence = document.getField(field).stringValue();
-      return preProcessor != null ? preProcessor.preProcess(sentence) : sentence;
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    } finally {
-      currentId++;
-    }
+    String sentence = next.value;
+    return preProcessor != null ? preProcessor.preProcess(sentence) : sentence;
   }
 
   @Override
   public boolean hasNext() {
-    return currentId < reader.numDocs();
+    return prefetcher.hasNext();
   }
 
   @Override
   public void reset() {
-    currentId = 0;
+    prefetcher.reset();
   }
 
   @Override
   public void finish() {
+    prefetcher.close();
   }
 
   @Override
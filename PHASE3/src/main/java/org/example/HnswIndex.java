@@ -0,0 +1,523 @@
+package org.example;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin) over the unit length document vectors of a
+ * {@link DocVectorStore}, an approximate nearest neighbour first stage that finds documents by meaning even when they
+ * share no term with the query. Every document is a node on layer 0 and, with exponentially falling probability, on
+ * the layers above; a search descends greedily from the top layer and explores efSearch candidates on layer 0.
+ *
+ * The graph is built for one reader and saved as hnsw_[key].bin next to the index, where the key covers the segments,
+ * the live documents, the model and the build parameters, so a changed index or model builds a new graph. The
+ * graph is only reused by a caller that keeps its index between runs; Phase3 deletes and rebuilds its index every run,
+ * so it builds the graph every run. Vectors and links are held on the heap while searching. Searches may run
+ * concurrently.
+ */
+public class HnswIndex {
+
+    private final static Logger LOG = LoggerFactory.getLogger(HnswIndex.class);
+
+    private final static String CODEC = "HnswIndex";
+    private final static int FORMAT = 1;
+    private final static String PREFIX = "hnsw_";
+
+    private final int dimension;
+    private final int m;
+    private final int efConstruction;
+    // Node major in chunks of whole rows, an array holds at most 2^31 floats: node i starts at
+    // (i % rowsPerChunk) * dimension of chunk i / rowsPerChunk
+    private final float[][] vectors;
+    private final int rowsPerChunk;
+    // Doc id of every node
+    private final int[] docs;
+    // Links per node and layer, element 0 holds the number of links
+    private final int[][][] links;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final ThreadLocal<Visited> visited;
+
+    private HnswIndex(int dimension, int m, int efConstruction, int size) {
+        this.dimension = dimension;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.rowsPerChunk = Math.max(1, Math.min(size, ArrayUtil.MAX_ARRAY_LENGTH / dimension));
+        this.vectors = new float[(size + rowsPerChunk - 1) / rowsPerChunk][];
+        for (int chunk = 0; chunk < vectors.length; chunk++) {
+            vectors[chunk] = new float[Math.min(rowsPerChunk, size - chunk * rowsPerChunk) * dimension];
+        }
+        this.docs = new int[size];
+        this.links = new int[size][][];
+        this.visited = ThreadLocal.withInitial(() -> new Visited(size));
+    }
+
+    /**          -------------------- open function --------------------
+     *
+     * @param directory : The directory of the index, the graph is saved in it
+     * @param reader : The documents of the graph, deleted ones are left out
+     * @param docVectors : The vectors of the documents
+     * @param m : Links per node on the upper layers, layer 0 has twice as many. More links raise recall and memory
+     * @param efConstruction : Candidates explored while linking a new node, more build slower and better graphs
+     * @return : The saved graph of the reader, built and saved first if there is none
+     */
+    public static HnswIndex open(Directory directory, IndexReader reader, DocVectorStore docVectors, int m, int efConstruction)
+            throws IOException {
+        String name = PREFIX + key(reader, docVectors, m, efConstruction) + ".bin";
+        try (ChecksumIndexInput in = directory.openChecksumInput(name, IOContext.READONCE)) {
+            HnswIndex index = read(in);
+            LOG.info("LOADED HNSW GRAPH {} OF {} DOCS", name, index.size());
+            return index;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            // not built for this reader yet
+        }
+        HnswIndex index = build(reader, docVectors, m, efConstruction);
+        index.write(directory, name);
+        for (String file : directory.listAll()) {
+            if (file.startsWith(PREFIX) && !file.equals(name)) {
+                directory.deleteFile(file);
+            }
+        }
+        return index;
+    }
+
+    /**          -------------------- build function --------------------
+     * Inserts the live documents of the reader one by one, in doc id order
+     */
+    public static HnswIndex build(IndexReader reader, DocVectorStore docVectors, int m, int efConstruction) throws IOException {
+        long start = System.nanoTime();
+        HnswIndex index = new HnswIndex(docVectors.dimension(), m, efConstruction, reader.numDocs());
+        Random random = new Random(42);
+        double levelMultiplier = 1 / Math.log(m);
+        float[] vector = new float[index.dimension];
+        int node = 0;
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            Bits liveDocs = leaf.getLiveDocs();
+            DocVectorStore.LeafVectors leafVectors = docVectors.vectors(leaf);
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) continue;
+                leafVectors.read(DocVectorStore.Variant.AVERAGE, doc, vector);
+                System.arraycopy(vector, 0, index.chunk(node), index.offset(node), index.dimension);
+                index.docs[node] = context.docBase + doc;
+                int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+                index.insert(node, level);
+                node++;
+            }
+        }
+        LOG.info("BUILT HNSW GRAPH OF {} DOCS (M={}, efConstruction={}) IN {} ms", node, m, efConstruction,
+                (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    public int size() {
+        return docs.length;
+    }
+
+    /**          -------------------- search function --------------------
+     *
+     * @param query : A unit length query vector, see {@link DocVectorStore#normalize}
+     * @param k : Number of hits
+     * @param efSearch : Candidates explored on layer 0, at least k. Higher values raise recall and latency
+     * @return : The approximately k nearest documents by cosine similarity, best first
+     */
+    public TopDocs search(float[] query, int k, int efSearch) {
+        if (entryPoint == -1) {
+            return new TopDocs(0, new ScoreDoc[0], Float.NaN);
+        }
+        int ep = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            ep = greedy(query, ep, level);
+        }
+        NodeHeap results = searchLayer(query, ep, Math.max(efSearch, k), 0);
+        while (results.size() > k) {
+            results.pop();
+        }
+        ScoreDoc[] hits = new ScoreDoc[results.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            float score = results.topScore();
+            hits[i] = new ScoreDoc(docs[results.pop()], score);
+        }
+        return new TopDocs(hits.length, hits, hits.length == 0 ? Float.NaN : hits[0].score);
+    }
+
+    private void insert(int node, int level) {
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxLinks(l) + 1];
+        }
+        if (entryPoint == -1) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        float[] query = Arrays.copyOfRange(chunk(node), offset(node), offset(node) + dimension);
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedy(query, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(query, ep, efConstruction, l);
+            // The closest candidate is the entry point of the next layer
+            int[] sorted = new int[candidates.size()];
+            float[] scores = new float[sorted.length];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                scores[i] = candidates.topScore();
+                sorted[i] = candidates.pop();
+            }
+            ep = sorted[0];
+            int[] selected = selectNeighbours(sorted, scores, sorted.length, m);
+            int[] own = links[node][l];
+            for (int neighbour : selected) {
+                own[++own[0]] = neighbour;
+                link(neighbour, node, l);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    // Adds node to the links of neighbour, pruning them with the heuristic when they are full
+    private void link(int neighbour, int node, int level) {
+        int[] list = links[neighbour][level];
+        int max = maxLinks(level);
+        if (list[0] < max) {
+            list[++list[0]] = node;
+            return;
+        }
+        int count = list[0] + 1;
+        int[] candidates = new int[count];
+        float[] scores = new float[count];
+        System.arraycopy(list, 1, candidates, 0, list[0]);
+        candidates[count - 1] = node;
+        for (int i = 0; i < count; i++) {
+            scores[i] = dot(neighbour, candidates[i]);
+        }
+        sortDescending(candidates, scores, count);
+        int[] selected = selectNeighbours(candidates, scores, count, max);
+        list[0] = selected.length;
+        System.arraycopy(selected, 0, list, 1, selected.length);
+    }
+
+    /**
+     * Heuristic of the paper: a candidate is only linked if it is closer to the node than to every neighbour
+     * selected so far, which keeps links pointing in different directions and the graph navigable
+     *
+     * @param candidates : Sorted by descending similarity to the node
+     */
+    private int[] selectNeighbours(int[] candidates, float[] scores, int count, int max) {
+        int[] selected = new int[Math.min(count, max)];
+        int size = 0;
+        for (int i = 0; i < count && size < max; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < size; j++) {
+                if (dot(candidates[i], selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[size++] = candidates[i];
+            }
+        }
+        return ArrayUtil.copyOfSubArray(selected, 0, size);
+    }
+
+    private int greedy(float[] query, int ep, int level) {
+        float best = dot(query, ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] list = links[ep][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float score = dot(query, list[i]);
+                if (score > best) {
+                    best = score;
+                    ep = list[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    // Best first search of one layer, returns the ef best nodes with the worst on top
+    private NodeHeap searchLayer(float[] query, int ep, int ef, int level) {
+        Visited seen = visited.get();
+        seen.clear();
+        NodeHeap candidates = new NodeHeap(ef, true);
+        NodeHeap results = new NodeHeap(ef, false);
+        float score = dot(query, ep);
+        seen.add(ep);
+        candidates.push(ep, score);
+        results.push(ep, score);
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            if (level >= links[candidate].length) continue;
+            int[] list = links[candidate][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbour = list[i];
+                if (!seen.add(neighbour)) continue;
+                score = dot(query, neighbour);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private float[] chunk(int node) {
+        return vectors[node / rowsPerChunk];
+    }
+
+    private int offset(int node) {
+        return (node % rowsPerChunk) * dimension;
+    }
+
+    private float dot(float[] query, int node) {
+        float[] vector = chunk(node);
+        int offset = offset(node);
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vector[offset + i];
+        }
+        return dot;
+    }
+
+    private float dot(int a, int b) {
+        float[] vectorA = chunk(a), vectorB = chunk(b);
+        int offsetA = offset(a), offsetB = offset(b);
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += vectorA[offsetA + i] * vectorB[offsetB + i];
+        }
+        return dot;
+    }
+
+    private static void sortDescending(int[] nodes, float[] scores, int count) {
+        for (int i = 1; i < count; i++) {
+            int node = nodes[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = score;
+        }
+    }
+
+    private void write(Directory directory, String name) throws IOException {
+        IndexOutput out = directory.createTempOutput(PREFIX + "tmp", "graph", IOContext.DEFAULT);
+        boolean success = false;
+        try {
+            CodecUtil.writeHeader(out, CODEC, FORMAT);
+            out.writeVInt(dimension);
+            out.writeVInt(m);
+            out.writeVInt(efConstruction);
+            out.writeVInt(docs.length);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < docs.length; node++) {
+                out.writeVInt(docs[node]);
+                float[] vector = chunk(node);
+                for (int i = offset(node); i < offset(node) + dimension; i++) {
+                    out.writeInt(Float.floatToRawIntBits(vector[i]));
+                }
+                out.writeVInt(links[node].length);
+                for (int[] list : links[node]) {
+                    out.writeVInt(list[0]);
+                    for (int i = 1; i <= list[0]; i++) {
+                        out.writeVInt(list[i]);
+                    }
+                }
+            }
+            CodecUtil.writeFooter(out);
+            out.close();
+            directory.sync(Collections.singleton(out.getName()));
+            directory.rename(out.getName(), name);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(out);
+                IOUtils.deleteFilesIgnoringExceptions(directory, out.getName());
+            }
+        }
+    }
+
+    private static HnswIndex read(ChecksumIndexInput in) throws IOException {
+        CodecUtil.checkHeader(in, CODEC, FORMAT, FORMAT);
+        int dimension = in.readVInt();
+        int m = in.readVInt();
+        int efConstruction = in.readVInt();
+        HnswIndex index = new HnswIndex(dimension, m, efConstruction, in.readVInt());
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        for (int node = 0; node < index.docs.length; node++) {
+            index.docs[node] = in.readVInt();
+            float[] vector = index.chunk(node);
+            for (int i = index.offset(node); i < index.offset(node) + dimension; i++) {
+                vector[i] = Float.intBitsToFloat(in.readInt());
+            }
+            int[][] levels = new int[in.readVInt()][];
+            for (int l = 0; l < levels.length; l++) {
+                int count = in.readVInt();
+                levels[l] = new int[index.maxLinks(l) + 1];
+                levels[l][0] = count;
+                for (int i = 1; i <= count; i++) {
+                    levels[l][i] = in.readVInt();
+                }
+            }
+            index.links[node] = levels;
+        }
+        CodecUtil.checkFooter(in);
+        return index;
+    }
+
+    private static String key(IndexReader reader, DocVectorStore docVectors, int m, int efConstruction) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        StringBuilder sb = new StringBuilder().append(m).append('/').append(efConstruction);
+        for (LeafReaderContext context : reader.leaves()) {
+            sb.append('/').append(docVectors.fileName(context.reader())).append(':').append(context.reader().numDocs());
+        }
+        return StringHelper.idToString(digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 12);
+    }
+
+    /**
+     * Nodes with a score, the best (max heap) or the worst (min heap) on top
+     */
+    private final static class NodeHeap {
+        private final boolean max;
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        NodeHeap(int capacity, boolean max) {
+            this.max = max;
+            this.nodes = new int[capacity + 2];
+            this.scores = new float[capacity + 2];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = ArrayUtil.grow(nodes, size + 1);
+                scores = ArrayUtil.growExact(scores, nodes.length);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(score, scores[parent])) break;
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int node = nodes[size];
+            float score = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && above(scores[child + 1], scores[child])) child++;
+                if (!above(scores[child], score)) break;
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+            return top;
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+
+    /**
+     * Set of visited nodes, cleared in constant time by moving to the next generation
+     */
+    private final static class Visited {
+        private final int[] marks;
+        private int generation;
+
+        Visited(int size) {
+            this.marks = new int[size];
+        }
+
+        void clear() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int node) {
+            if (marks[node] == generation) return false;
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+/**
+ * Collects the hits of a {@link HybridQuery} into a bounded pool of primitive arrays and fuses the lexical and
+ * cosine scores in the same pass. {@link HybridQuery.Mode#LINEAR} keeps the best k fused scores directly. The other
+ * modes keep the pool size best lexical hits, computing the cosine only of the hits that enter the pool, and fuse
+ * over the pool once collection is done, since min-max bounds and ranks are only known then.
+ */
+public final class HybridCollector implements Collector {
+
+    private final HybridQuery.Mode mode;
+    private final float alpha;
+    private final int rrfK;
+    private final Pool pool;
+    private long totalHits;
+
+    /**
+     * @param mode : The fusion, must be the mode of the collected query
+     * @param alpha : Weight of the lexical score in the NORMALIZED mode
+     * @param poolSize : Hits kept for the fusion, at least the number of hits wanted
+     * @param rrfK : Rank constant of the RRF mode, larger values flatten the difference between ranks
+     */
+    public HybridCollector(HybridQuery.Mode mode, float alpha, int poolSize, int rrfK) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1, got " + poolSize);
+        }
+        this.mode = mode;
+        this.alpha = alpha;
+        this.rrfK = rrfK;
+        this.pool = new Pool(poolSize);
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) {
+        int docBase = context.docBase;
+        return new LeafCollector() {
+            private HybridQuery.HybridScorer scorer;
+
+            @Override
+            public void setScorer(Scorer scorer) {
+                this.scorer = find(scorer);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                totalHits++;
+                // The fused score for LINEAR, the lexical score otherwise
+                float key = scorer.score();
+                if (pool.competitive(key, docBase + doc)) {
+                    pool.insert(docBase + doc, key, scorer.lexicalScore(), scorer.cosine());
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean needsScores() {
+        return true;
+    }
+
+    /**          -------------------- topDocs function --------------------
+     *
+     * @param k : Number of hits to return
+     * @return : The best k hits by fused score, ties by doc id
+     */
+    public TopDocs topDocs(int k) {
+        return fuse(pool, totalHits, k);
+    }
+
+    private HybridQuery.HybridScorer find(Scorer scorer) {
+        // The hybrid scorer may be wrapped, e.g. by a boolean query or the scorer of the searcher
+        Deque<Scorer> queue = new ArrayDeque<>();
+        queue.add(scorer);
+        while (!queue.isEmpty()) {
+            Scorer next = queue.poll();
+            if (next instanceof HybridQuery.HybridScorer) {
+                HybridQuery.HybridScorer hybrid = (HybridQuery.HybridScorer) next;
+                if (hybrid.mode() != mode) {
+                    throw new IllegalStateException("Collecting a " + hybrid.mode() + " query with a " + mode + " collector");
+                }
+                return hybrid;
+            }
+            try {
+                for (Scorer.ChildScorer child : next.getChildren()) {
+                    queue.add(child.child);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalStateException("HybridCollector only collects HybridQuery hits, got " + scorer.getClass().getName());
+    }
+
+    private TopDocs fuse(Pool pool, long totalHits, int k) {
+        int size = pool.size;
+        float[] fused = new float[size];
+        switch (mode) {
+            case LINEAR:
+                System.arraycopy(pool.keys, 0, fused, 0, size);
+                break;
+            case NORMALIZED: {
+                float lexicalMin = Float.POSITIVE_INFINITY, lexicalMax = Float.NEGATIVE_INFINITY;
+                float cosineMin = Float.POSITIVE_INFINITY, cosineMax = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < size; i++) {
+                    lexicalMin = Math.min(lexicalMin, pool.lexical[i]);
+                    lexicalMax = Math.max(lexicalMax, pool.lexical[i]);
+                    cosineMin = Math.min(cosineMin, pool.cosines[i]);
+                    cosineMax = Math.max(cosineMax, pool.cosines[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    fused[i] = alpha * normalize(pool.lexical[i], lexicalMin, lexicalMax)
+                            + (1 - alpha) * normalize(pool.cosines[i], cosineMin, cosineMax);
+                }
+                break;
+            }
+            case RRF: {
+                int[] lexicalOrder = order(pool.docs, pool.lexical, size);
+                int[] cosineOrder = order(pool.docs, pool.cosines, size);
+                for (int rank = 0; rank < size; rank++) {
+                    fused[lexicalOrder[rank]] += 1f / (rrfK + rank + 1);
+                    fused[cosineOrder[rank]] += 1f / (rrfK + rank + 1);
+                }
+                break;
+            }
+        }
+
+        int[] best = order(pool.docs, fused, size);
+        ScoreDoc[] scoreDocs = new ScoreDoc[Math.min(k, size)];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            scoreDocs[i] = new ScoreDoc(pool.docs[best[i]], fused[best[i]]);
+        }
+        return new TopDocs(totalHits, scoreDocs, scoreDocs.length > 0 ? scoreDocs[0].score : Float.NaN);
+    }
+
+    // A constant score normalizes to 1, so it neither helps nor hurts any hit
+    private static float normalize(float value, float min, float max) {
+        return (max > min) ? (value - min) / (max - min) : 1;
+    }
+
+    // Positions in the pool by descending score, ties by doc id
+    private static int[] order(int[] docs, float[] scores, int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i, int j) {
+                int cmp = Float.compare(scores[order[j]], scores[order[i]]);
+                return cmp != 0 ? cmp : Integer.compare(docs[order[i]], docs[order[j]]);
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }.sort(0, size);
+        return order;
+    }
+
+    /**
+     * Creates one collector per slice of a concurrent search and merges their pools before fusing, so the fusion
+     * sees the same pool as a single collector would.
+     */
+    public final static class Manager implements CollectorManager<HybridCollector, TopDocs> {
+        private final HybridQuery.Mode mode;
+        private final float alpha;
+        private final int poolSize;
+        private final int rrfK;
+        private final int k;
+
+        /**
+         * @param k : Number of hits returned by reduce, LINEAR keeps exactly these, the other modes keep poolSize
+         */
+        public Manager(HybridQuery.Mode mode, float alpha, int poolSize, int rrfK, int k) {
+            this.mode = mode;
+            this.alpha = alpha;
+            this.poolSize = (mode == HybridQuery.Mode.LINEAR) ? k : Math.max(k, poolSize);
+            this.rrfK = rrfK;
+            this.k = k;
+        }
+
+        @Override
+        public HybridCollector newCollector() {
+            return new HybridCollector(mode, alpha, poolSize, rrfK);
+        }
+
+        @Override
+        public TopDocs reduce(Collection<HybridCollector> collectors) {
+            HybridCollector merged = newCollector();
+            for (HybridCollector collector : collectors) {
+                Pool pool = collector.pool;
+                for (int i = 0; i < pool.size; i++) {
+                    if (merged.pool.competitive(pool.keys[i], pool.docs[i])) {
+                        merged.pool.insert(pool.docs[i], pool.keys[i], pool.lexical[i], pool.cosines[i]);
+                    }
+                }
+                merged.totalHits += collector.totalHits;
+            }
+            return merged.topDocs(k);
+        }
+    }
+
+    /**
+     * Bounded binary min-heap over parallel arrays keyed by score, the root is the worst kept hit. Ties are broken
+     * by doc id, the larger doc id being worse, so the pool does not depend on the collection order.
+     */
+    private final static class Pool {
+        private final int capacity;
+        private final int[] docs;
+        private final float[] keys;
+        private final float[] lexical;
+        private final float[] cosines;
+        private int size;
+
+        Pool(int capacity) {
+            this.capacity = capacity;
+            this.docs = new int[capacity];
+            this.keys = new float[capacity];
+            this.lexical = new float[capacity];
+            this.cosines = new float[capacity];
+        }
+
+        boolean competitive(float key, int doc) {
+            return size < capacity || !worse(key, doc, keys[0], docs[0]);
+        }
+
+        void insert(int doc, float key, float lexicalScore, float cosine) {
+            int i;
+            if (size < capacity) {
+                i = size++;
+                // Sift up
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!worse(key, doc, keys[parent], docs[parent])) break;
+                    move(parent, i);
+                    i = parent;
+                }
+            } else {
+                // Replace the root and sift down
+                i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && worse(keys[child + 1], docs[child + 1], keys[child], docs[child])) child++;
+                    if (!worse(keys[child], docs[child], key, doc)) break;
+                    move(child, i);
+                    i = child;
+                }
+            }
+            docs[i] = doc;
+            keys[i] = key;
+            lexical[i] = lexicalScore;
+            cosines[i] = cosine;
+        }
+
+        private void move(int from, int to) {
+            docs[to] = docs[from];
+            keys[to] = keys[from];
+            lexical[to] = lexical[from];
+            cosines[to] = cosines[from];
+        }
+
+        private static boolean worse(float keyA, int docA, float keyB, int docB) {
+            return keyA < keyB || (keyA == keyB && docA > docB);
+        }
+    }
+
+}
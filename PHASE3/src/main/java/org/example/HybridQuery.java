@@ -0,0 +1,240 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Matches the documents of a lexical query (e.g. BM25 scored) and scores them together with the cosine of their
+ * dense vector and the query vector, in the same pass. With {@link Mode#LINEAR} the score is the fused score, so any
+ * collector ranks by it; the other modes need the scores of the whole candidate pool and are finished by a
+ * {@link HybridCollector}, the scorer then scores by the lexical score alone. Cosines come from the
+ * {@link DocVectorStore.Variant#AVERAGE} vectors of a store, or from the term vectors when there is no store.
+ */
+public final class HybridQuery extends Query {
+
+    public enum Mode {
+        /** alpha * lexical + (1 - alpha) * cosine */
+        LINEAR,
+        /** alpha * lexical + (1 - alpha) * cosine, both min-max normalized over the candidate pool */
+        NORMALIZED,
+        /** 1 / (k + lexical rank) + 1 / (k + cosine rank), ranks within the candidate pool */
+        RRF
+    }
+
+    private final Query lexical;
+    private final float[] unitQueryVector;
+    private final DocVectorStore docVectors;
+    private final EmbeddingLookup embeddings;
+    private final String field;
+    private final Mode mode;
+    private final float alpha;
+
+    /**
+     * @param lexical : Selects and scores the candidates
+     * @param unitQueryVector : The unit length query vector, null scores every cosine 0
+     * @param docVectors : Precomputed document vectors, may be null
+     * @param embeddings : Vectorizes the term vectors of the field when there is no store
+     * @param field : The field with term vectors
+     * @param alpha : Weight of the lexical score in the LINEAR and NORMALIZED modes
+     */
+    public HybridQuery(Query lexical, float[] unitQueryVector, DocVectorStore docVectors, EmbeddingLookup embeddings,
+                       String field, Mode mode, float alpha) {
+        this.lexical = Objects.requireNonNull(lexical);
+        this.unitQueryVector = unitQueryVector;
+        this.docVectors = docVectors;
+        this.embeddings = embeddings;
+        this.field = field;
+        this.mode = Objects.requireNonNull(mode);
+        this.alpha = alpha;
+    }
+
+    public Query getLexical() {
+        return lexical;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public float getAlpha() {
+        return alpha;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = lexical.rewrite(reader);
+        if (rewritten != lexical) {
+            return new HybridQuery(rewritten, unitQueryVector, docVectors, embeddings, field, mode, alpha);
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        return new HybridWeight(searcher.createWeight(lexical, needsScores, boost));
+    }
+
+    @Override
+    public String toString(String defaultField) {
+        return "hybrid(" + mode + ", " + lexical.toString(defaultField) + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!sameClassAs(other)) return false;
+        HybridQuery that = (HybridQuery) other;
+        return lexical.equals(that.lexical) && Arrays.equals(unitQueryVector, that.unitQueryVector)
+                && docVectors == that.docVectors && embeddings == that.embeddings && Objects.equals(field, that.field)
+                && mode == that.mode && Float.compare(alpha, that.alpha) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = classHash();
+        hash = 31 * hash + lexical.hashCode();
+        hash = 31 * hash + Arrays.hashCode(unitQueryVector);
+        hash = 31 * hash + Objects.hashCode(field);
+        hash = 31 * hash + mode.hashCode();
+        return 31 * hash + Float.floatToIntBits(alpha);
+    }
+
+    private final class HybridWeight extends Weight {
+        private final Weight lexicalWeight;
+
+        private HybridWeight(Weight lexicalWeight) {
+            super(HybridQuery.this);
+            this.lexicalWeight = lexicalWeight;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            lexicalWeight.extractTerms(terms);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Explanation lexicalExplanation = lexicalWeight.explain(context, doc);
+            if (!lexicalExplanation.isMatch()) {
+                return lexicalExplanation;
+            }
+            HybridScorer scorer = (HybridScorer) scorer(context);
+            if (scorer == null || scorer.iterator().advance(doc) != doc) {
+                return Explanation.noMatch("no lexical match", lexicalExplanation);
+            }
+            Explanation cosine = Explanation.match(scorer.cosine(), "cosine of the document and query vectors");
+            if (mode == Mode.LINEAR) {
+                return Explanation.match(scorer.score(), "linear fusion, alpha=" + alpha + ", of:", lexicalExplanation, cosine);
+            }
+            return Explanation.match(scorer.score(), mode + " fusion over the candidate pool, scored by the lexical score, of:",
+                    lexicalExplanation, cosine);
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            Scorer lexicalScorer = lexicalWeight.scorer(context);
+            if (lexicalScorer == null) {
+                return null;
+            }
+            return new HybridScorer(this, lexicalScorer, context.reader());
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            // The cosines depend on the document vector files, not only on the segment
+            return false;
+        }
+    }
+
+    /**
+     * Scorer of a {@link HybridQuery}, giving the collector both parts of the score. Used by one thread only.
+     */
+    final class HybridScorer extends Scorer {
+        private final Scorer lexicalScorer;
+        private final LeafReader reader;
+        private final DocVectorStore.LeafVectors leafVectors;
+        private final float[] documentVector;
+        private int cosineDoc = -1;
+        private float cosine;
+
+        private HybridScorer(Weight weight, Scorer lexicalScorer, LeafReader reader) throws IOException {
+            super(weight);
+            this.lexicalScorer = lexicalScorer;
+            this.reader = reader;
+            this.leafVectors = (docVectors != null && unitQueryVector != null) ? docVectors.vectors(reader) : null;
+            this.documentVector = (docVectors == null && unitQueryVector != null) ? new float[embeddings.dimension()] : null;
+        }
+
+        Mode mode() {
+            return mode;
+        }
+
+        float lexicalScore() throws IOException {
+            return lexicalScorer.score();
+        }
+
+        /**
+         * @return : The cosine of the current document, computed once per document
+         */
+        float cosine() throws IOException {
+            int doc = docID();
+            if (doc != cosineDoc) {
+                cosineDoc = doc;
+                if (unitQueryVector == null) {
+                    cosine = 0;
+                } else if (leafVectors != null) {
+                    cosine = leafVectors.dot(DocVectorStore.Variant.AVERAGE, doc, unitQueryVector);
+                } else if (VectorizeUtils.toDenseMeanVector(reader.getTermVector(doc, field), embeddings, documentVector) != null) {
+                    cosine = VectorizeUtils.cosineSimilarity(unitQueryVector, documentVector);
+                } else {
+                    cosine = 0;
+                }
+            }
+            return cosine;
+        }
+
+        @Override
+        public float score() throws IOException {
+            if (mode == Mode.LINEAR) {
+                return alpha * lexicalScore() + (1 - alpha) * cosine();
+            }
+            return lexicalScore();
+        }
+
+        @Override
+        public int docID() {
+            return lexicalScorer.docID();
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return lexicalScorer.iterator();
+        }
+
+        @Override
+        public TwoPhaseIterator twoPhaseIterator() {
+            return lexicalScorer.twoPhaseIterator();
+        }
+
+        @Override
+        public Collection<ChildScorer> getChildren() {
+            return Collections.singleton(new ChildScorer(lexicalScorer, "LEXICAL"));
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.lucene.util.BytesRef;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary model format that is memory mapped instead of parsed: opening a model maps the file and reads a 128 byte
+ * header, the vectors are paged in by the operating system on first use and every process mapping the same file
+ * shares one copy in the page cache. Little endian, sections aligned to 64 bytes:
+ * <pre>
+ *   header   magic, version, dimension, size, slot count, key, offsets of the sections
+ *   slots    int[slot count], id + 1 of the word hashed to the slot (linear probing), 0 is empty
+ *   starts   int[size + 1], word i spans bytes starts[i] to starts[i + 1]
+ *   bytes    the UTF-8 bytes of all words
+ *   vectors  float[size][dimension]
+ * </pre>
+ * Convert a model with: java org.example.MappedEmbeddings models/wikiModel/model.bin [models/wikiModel/model.bin.vecm]
+ */
+public final class MappedEmbeddings {
+
+    public final static String EXTENSION = ".vecm";
+
+    private final static Logger LOG = LoggerFactory.getLogger(MappedEmbeddings.class);
+
+    private final static int MAGIC = 0x4D563257;
+    private final static int VERSION = 1;
+    private final static int HEADER_BYTES = 128;
+    private final static int MAX_KEY_BYTES = 64;
+    // Offsets of the sections, after the key
+    private final static int OFFSETS = 24 + MAX_KEY_BYTES;
+    private final static int ALIGNMENT = 64;
+
+    private MappedEmbeddings() {
+        // no public constructors
+    }
+
+    /**          -------------------- main function --------------------
+     *
+     * @param args : The model to convert, read with WordVectorSerializer, and optionally the output file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MappedEmbeddings <model> [<output, default model" + EXTENSION + ">]");
+            System.exit(1);
+        }
+        Path output = Paths.get(args.length > 1 ? args[1] : args[0] + EXTENSION);
+        long start = System.nanoTime();
+        Word2Vec word2Vec = WordVectorSerializer.readWord2VecModel(args[0]);
+        long loaded = System.nanoTime();
+        write(EmbeddingTable.of(word2Vec), output);
+        LOG.info("Read {} in {} ms, wrote {} ({} MB)", args[0], (loaded - start) / 1_000_000, output,
+                Files.size(output) / (1024 * 1024));
+        start = System.nanoTime();
+        EmbeddingLookup mapped = open(output);
+        LOG.info("Mapped {} words of {} dimensions in {} ms", mapped.size(), mapped.dimension(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**          -------------------- write function --------------------
+     *
+     * @param embeddings : The words and vectors to write, ids are kept
+     * @param path : The file, written to a temporary file next to it and renamed, so readers never see half a model
+     */
+    public static void write(EmbeddingLookup embeddings, Path path) throws IOException {
+        int size = embeddings.size();
+        int dimension = embeddings.dimension();
+        byte[] key = embeddings.key().getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key longer than " + MAX_KEY_BYTES + " bytes: " + embeddings.key());
+        }
+
+        int slotCount = EmbeddingTable.WordIds.capacity(size);
+        int[] slots = new int[slotCount];
+        int[] starts = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            BytesRef word = embeddings.word(id);
+            int slot = EmbeddingTable.WordIds.hash(word.bytes, word.offset, word.length) & (slotCount - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            slots[slot] = id + 1;
+            starts[id + 1] = Math.addExact(starts[id], word.length);
+        }
+        long slotsOffset = HEADER_BYTES;
+        long startsOffset = align(slotsOffset + (long) Integer.BYTES * slotCount);
+        long bytesOffset = align(startsOffset + (long) Integer.BYTES * (size + 1));
+        long vectorsOffset = align(bytesOffset + starts[size]);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(dimension);
+            out.putInt(size);
+            out.putInt(slotCount);
+            out.putInt(key.length);
+            out.put(key, 0, key.length);
+            out.padTo(OFFSETS);
+            out.putLong(slotsOffset);
+            out.putLong(startsOffset);
+            out.putLong(bytesOffset);
+            out.putLong(vectorsOffset);
+            out.padTo(slotsOffset);
+            for (int slot : slots) {
+                out.putInt(slot);
+            }
+            out.padTo(startsOffset);
+            for (int start : starts) {
+                out.putInt(start);
+            }
+            out.padTo(bytesOffset);
+            for (int id = 0; id < size; id++) {
+                BytesRef word = embeddings.word(id);
+                out.put(word.bytes, word.offset, word.length);
+            }
+            out.padTo(vectorsOffset);
+            float[] vector = new float[dimension];
+            for (int id = 0; id < size; id++) {
+                for (float value : embeddings.get(id, vector)) {
+                    out.putFloat(value);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**          -------------------- open function --------------------
+     *
+     * @param path : A file written by {@link #write}
+     * @return : The embeddings, reading straight from the mapped file. The mapping stays valid until the table is
+     *          garbage collected
+     */
+    public static EmbeddingTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a mapped model, too short: " + path);
+            }
+            ByteBuffer header = map(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a mapped model: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported version " + header.getInt(4) + " of " + path);
+            }
+            int dimension = header.getInt(8);
+            int size = header.getInt(12);
+            int slotCount = header.getInt(16);
+            byte[] key = new byte[header.getInt(20)];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = header.get(24 + i);
+            }
+            long slotsOffset = header.getLong(OFFSETS);
+            long startsOffset = header.getLong(OFFSETS + 8);
+            long bytesOffset = header.getLong(OFFSETS + 16);
+            long vectorsOffset = header.getLong(OFFSETS + 24);
+            long length = vectorsOffset + (long) size * dimension * Float.BYTES;
+            if (channel.size() < length) {
+                throw new IOException("Truncated mapped model, expected " + length + " bytes but found " + channel.size() + ": " + path);
+            }
+
+            IntBuffer starts = map(channel, startsOffset, (long) Integer.BYTES * (size + 1)).asIntBuffer();
+            MappedWords words = new MappedWords(
+                    map(channel, slotsOffset, (long) Integer.BYTES * slotCount).asIntBuffer(),
+                    starts,
+                    map(channel, bytesOffset, starts.get(size)));
+
+            // A mapping holds at most 2 GB, larger tables are split into chunks of whole rows
+            int rowsPerChunk = Math.max(1, Math.min(size, (Integer.MAX_VALUE / Float.BYTES) / dimension));
+            FloatBuffer[] chunks = new FloatBuffer[(size + rowsPerChunk - 1) / rowsPerChunk];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                long rows = Math.min(rowsPerChunk, size - (long) chunk * rowsPerChunk);
+                long offset = vectorsOffset + (long) chunk * rowsPerChunk * dimension * Float.BYTES;
+                chunks[chunk] = map(channel, offset, rows * dimension * Float.BYTES).asFloatBuffer();
+            }
+            return new EmbeddingTable(dimension, size, chunks, rowsPerChunk, words, new String(key, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * The hash table of {@link EmbeddingTable.WordIds}, read from the mapped file with absolute gets only
+     */
+    private final static class MappedWords implements EmbeddingTable.Words {
+        private final IntBuffer slots;
+        private final IntBuffer starts;
+        private final ByteBuffer bytes;
+        private final int mask;
+
+        private MappedWords(IntBuffer slots, IntBuffer starts, ByteBuffer bytes) {
+            this.slots = slots;
+            this.starts = starts;
+            this.bytes = bytes;
+            this.mask = slots.capacity() - 1;
+        }
+
+        @Override
+        public int find(BytesRef word) {
+            int slot = EmbeddingTable.WordIds.hash(word.bytes, word.offset, word.length) & mask;
+            while (true) {
+                int id = slots.get(slot) - 1;
+                if (id == -1) return -1;
+                if (equals(id, word)) return id;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        @Override
+        public BytesRef word(int id) {
+            int start = starts.get(id);
+            byte[] word = new byte[starts.get(id + 1) - start];
+            for (int i = 0; i < word.length; i++) {
+                word[i] = bytes.get(start + i);
+            }
+            return new BytesRef(word);
+        }
+
+        private boolean equals(int id, BytesRef word) {
+            int start = starts.get(id);
+            if (starts.get(id + 1) - start != word.length) return false;
+            for (int i = 0; i < word.length; i++) {
+                if (bytes.get(start + i) != word.bytes[word.offset + i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Buffered little endian writes to a channel
+     */
+    private final static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(Float.BYTES);
+            buffer.putFloat(value);
+            position += Float.BYTES;
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensure(1);
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+                position += chunk;
+            }
+        }
+
+        void padTo(long offset) throws IOException {
+            while (position < offset) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide run metrics: the time spent per pipeline stage, counters (documents, hits, cache misses, ...)
+ * and latency histograms with percentiles. Recording only adds to striped counters, so it is cheap enough for
+ * the per-document and per-query loops. The metrics are written when the run ends to the file given with
+ * -Dmetrics=path, as JSON or, for a path ending in .prom, in the Prometheus text format.
+ */
+public final class Metrics {
+
+    /**
+     * Stages of the indexing and search pipelines. ANALYZE is only separate from INDEX when the analysis is
+     * done ahead of IndexWriter.addDocument
+     */
+    public enum Stage {
+        READ, PARSE, ANALYZE, INDEX, COMMIT, QUERY_PARSE, SEARCH, RERANK, WRITE
+    }
+
+    private final static Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    // Output file of the metrics (-Dmetrics=path), unset disables the export
+    private final static String METRICS_FILE = System.getProperty("metrics");
+
+    private final static LongAdder[] STAGE_NANOS = new LongAdder[Stage.values().length];
+    private final static LongAdder[] STAGE_COUNTS = new LongAdder[Stage.values().length];
+    private final static Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private final static Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < STAGE_NANOS.length; i++) {
+            STAGE_NANOS[i] = new LongAdder();
+            STAGE_COUNTS[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+        // no public constructors
+    }
+
+    /**
+     * @return : The start time of a stage, handed back to {@link #stop}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since start to the stage
+     */
+    public static void stop(Stage stage, long start) {
+        STAGE_NANOS[stage.ordinal()].add(System.nanoTime() - start);
+        STAGE_COUNTS[stage.ordinal()].increment();
+    }
+
+    public static void count(String counter, long amount) {
+        COUNTERS.computeIfAbsent(counter, name -> new LongAdder()).add(amount);
+    }
+
+    public static void count(String counter) {
+        count(counter, 1);
+    }
+
+    /**
+     * @param name : Name of the histogram, e.g. "query_latency"
+     * @return : The histogram of that name, created on first use
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, Histogram::new);
+    }
+
+    /**          -------------------- export function --------------------
+     * Writes the metrics to the file of -Dmetrics, does nothing when it is not set
+     */
+    public static void export() throws IOException {
+        if (METRICS_FILE == null) return;
+        Path path = Paths.get(METRICS_FILE);
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if (METRICS_FILE.endsWith(".prom")) {
+                writePrometheus(out);
+            } else {
+                writeJson(out);
+            }
+        }
+        LOG.info("Metrics written to {}", path.toAbsolutePath());
+    }
+
+    public static void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            long count = STAGE_COUNTS[stage.ordinal()].sum();
+            if (count == 0) continue;
+            out.write(String.format(Locale.ROOT, "%s    \"%s\": {\"count\": %d, \"seconds\": %.6f}", separator,
+                    stage.name().toLowerCase(Locale.ROOT), count, STAGE_NANOS[stage.ordinal()].sum() / 1e9));
+            separator = ",\n";
+        }
+        out.write("\n  },\n  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            out.write(separator + "    \"" + counter.getKey() + "\": " + counter.getValue().sum());
+            separator = ",\n";
+        }
+        out.write("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (Histogram histogram : new ConcurrentSkipListMap<>(HISTOGRAMS).values()) {
+            out.write(separator + "    \"" + histogram.name + "\": {\"count\": " + histogram.count());
+            for (double percentile : Histogram.PERCENTILES) {
+                out.write(String.format(Locale.ROOT, ", \"p%s\": %.3f", label(percentile), histogram.percentile(percentile) / 1e3));
+            }
+            out.write(String.format(Locale.ROOT, ", \"max\": %.3f, \"unit\": \"us\"}", histogram.max() / 1e3));
+            separator = ",\n";
+        }
+        out.write("\n  }\n}\n");
+    }
+
+    public static void writePrometheus(Writer out) throws IOException {
+        out.write("# TYPE ir_stage_seconds_total counter\n");
+        for (Stage stage : Stage.values()) {
+            out.write(String.format(Locale.ROOT, "ir_stage_seconds_total{stage=\"%s\"} %.6f\n",
+                    stage.name().toLowerCase(Locale.ROOT), STAGE_NANOS[stage.ordinal()].sum() / 1e9));
+        }
+        out.write("# TYPE ir_stage_calls_total counter\n");
+        for (Stage stage : Stage.values()) {
+            out.write("ir_stage_calls_total{stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"} "
+                    + STAGE_COUNTS[stage.ordinal()].sum() + "\n");
+        }
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            out.write("# TYPE ir_" + counter.getKey() + "_total counter\n");
+            out.write("ir_" + counter.getKey() + "_total " + counter.getValue().sum() + "\n");
+        }
+        for (Histogram histogram : new ConcurrentSkipListMap<>(HISTOGRAMS).values()) {
+            String name = "ir_" + histogram.name + "_seconds";
+            out.write("# TYPE " + name + " summary\n");
+            for (double percentile : Histogram.PERCENTILES) {
+                out.write(String.format(Locale.ROOT, "%s{quantile=\"%s\"} %.9f\n", name, percentile / 100,
+                        histogram.percentile(percentile) / 1e9));
+            }
+            out.write(String.format(Locale.ROOT, "%s_sum %.9f\n", name, histogram.sum() / 1e9));
+            out.write(name + "_count " + histogram.count() + "\n");
+        }
+    }
+
+    private static String label(double percentile) {
+        return (percentile == Math.rint(percentile)) ? Integer.toString((int) percentile) : Double.toString(percentile).replace('.', '_');
+    }
+
+    /**
+     * Log-linear histogram of nanosecond values in the spirit of HdrHistogram: every power of two is split
+     * into 64 linear buckets, so any recorded value is reported with less than 2% relative error while the
+     * whole range up to Long.MAX_VALUE fits in a few thousand counters.
+     */
+    public final static class Histogram {
+
+        public final static double[] PERCENTILES = {50, 90, 99, 99.9};
+
+        // Values below SUB_BUCKETS get a bucket each, above that every power of two gets HALF buckets
+        private final static int SUB_BUCKET_BITS = 7;
+        private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final static int HALF = SUB_BUCKETS / 2;
+        private final static int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * HALF + SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param nanos : A non negative value, e.g. System.nanoTime() - start
+         */
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucket(value));
+            total.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+            return shift * HALF + (int) (value >>> shift);
+        }
+
+        // Highest value that falls into the bucket
+        static long highestValue(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / HALF - 1;
+            long subBucket = bucket - (long) shift * HALF;
+            return ((subBucket + 1) << shift) - 1;
+        }
+
+        public long count() {
+            return total.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile : e.g. 99 for the 99th percentile
+         * @return : The value that percentile of the recorded values is at or below
+         */
+        public long percentile(double percentile) {
+            long count = count();
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += counts.get(bucket);
+                if (seen >= rank) return Math.min(highestValue(bucket), max());
+            }
+            return max();
+        }
+    }
+
+}
@@ -6,17 +6,16 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.deeplearning4j.models.embeddings.learning.impl.elements.CBOW;
 import org.deeplearning4j.models.embeddings.learning.impl.elements.SkipGram;
@@ -26,9 +25,9 @@ import org.deeplearning4j.text.sentenceiterator.BasicLineIterator;
 import org.deeplearning4j.text.sentenceiterator.SentenceIterator;
 import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
 import org.nd4j.common.io.ClassPathResource;
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.ops.transforms.Transforms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -39,21 +38,61 @@ import java.util.function.UnaryOperator;
 
 public class Phase3 {
 
-    private final static String READ_DIR = "IR2024\\documents.txt";
+    final static String READ_DIR = "IR2024\\documents.txt";
     private final static String MY_RESULTS_DIR = "IR2024\\trec_eval\\myResults.txt";
     private final static String WIKI_RESULTS_DIR = "IR2024\\trec_eval\\WikiResults.txt";
     private final static String WE_MY_RESULTS_DIR = "IR2024\\trec_eval\\myResultsWE.txt";
     private final static String WE_WIKI_RESULTS_DIR = "IR2024\\trec_eval\\WikiResultsWE.txt";
-    private final static String QUERIES_DIR = "IR2024\\queries.txt";
-
+    final static String QUERIES_DIR = "IR2024\\queries.txt";
+
+    // CONSOLE OUTPUT GOES THROUGH THE ASYNC APPENDER OF logback.xml
+    private final static Logger LOG = LoggerFactory.getLogger(Phase3.class);
+
+    // NUMBER OF QUERY THREADS OF THE BatchSearcher (-DsearchThreads=N)
+    private final static int SEARCH_THREADS = Integer.getInteger("searchThreads", Runtime.getRuntime().availableProcessors());
+
+    // STORED CONTENT WITH TERM VECTORS, THE RERANKING READS THE TERMS OF EVERY HIT FROM THEM
+    private final static FieldType CONTENT_FT = contentFieldType();
+    // STORED ONLY CODE
+    private final static FieldType CODE_FT = codeFieldType();
+
+    // RERANK FROM THE DOCUMENT VECTORS STORED PER SEGMENT INSTEAD OF THE TERM VECTORS OF EVERY HIT (-DdocVectors=false TURNS IT OFF)
+    private final static boolean DOC_VECTORS = Boolean.parseBoolean(System.getProperty("docVectors", "true"));
+
+    // FIRST STAGE RETRIEVER (-DfirstStage=lexical|hnsw), HNSW SEARCHES THE NEAREST DOCUMENT VECTORS INSTEAD OF THE TERMS
+    private final static String FIRST_STAGE = System.getProperty("firstStage", "lexical");
+    // LINKS PER NODE OF THE HNSW GRAPH (-DhnswM=N)
+    private final static int HNSW_M = Integer.getInteger("hnswM", 16);
+    // CANDIDATES EXPLORED WHILE BUILDING THE HNSW GRAPH (-DhnswEfConstruction=N)
+    private final static int HNSW_EF_CONSTRUCTION = Integer.getInteger("hnswEfConstruction", 100);
+    // CANDIDATES EXPLORED PER HNSW SEARCH (-DhnswEfSearch=N)
+    private final static int HNSW_EF_SEARCH = Integer.getInteger("hnswEfSearch", 64);
+
+    // MAP THE WORD VECTORS FROM A BINARY COPY NEXT TO THE MODEL INSTEAD OF PARSING THE MODEL, WRITTEN ON THE FIRST RUN (-DmappedModel=false TURNS IT OFF)
+    private final static boolean MAPPED_MODEL = Boolean.parseBoolean(System.getProperty("mappedModel", "true"));
+
+    // ONE BYTE PER VECTOR COMPONENT INSTEAD OF FOUR (-Dquantized=true), QuantizationReport MEASURES THE ACCURACY
+    private final static boolean QUANTIZED = Boolean.parseBoolean(System.getProperty("quantized", "false"));
+
+    // FUSE THE BM25 SCORE AND THE COSINE WHILE COLLECTING (-Dfusion=none|linear|normalized|rrf), NONE RERANKS THE BM25 HITS BY COSINE AFTERWARDS
+    private final static String FUSION = System.getProperty("fusion", "none");
+    // WEIGHT OF THE BM25 SCORE IN THE LINEAR AND NORMALIZED FUSION (-DfusionAlpha=F)
+    private final static float FUSION_ALPHA = Float.parseFloat(System.getProperty("fusionAlpha", "0.5"));
+    // BEST BM25 HITS FUSED BY THE NORMALIZED AND RRF FUSION (-DfusionPool=N)
+    private final static int FUSION_POOL = Integer.getInteger("fusionPool", 100);
+    // RANK CONSTANT OF THE RRF FUSION (-DrrfK=N)
+    private final static int RRF_K = Integer.getInteger("rrfK", 60);
+
+    // PICKED AT RUN TIME (-DwordEmbeddingsSimilarity=true, -DwikiModel=true)
     private static boolean WANT_WORD_EMBEDDINGS_SIMILARITY;
     private static boolean WANT_WIKI_MODEL;
 
     public static void main(String[] args) throws IOException {
 
         // --------------- --------------- DECLARE SIMILARITY AND MODEL --------------- ---------------
-        WANT_WORD_EMBEDDINGS_SIMILARITY = false;
-        WANT_WIKI_MODEL = false;
+        WANT_WORD_EMBEDDINGS_SIMILARITY = Boolean.getBoolean("wordEmbeddingsSimilarity");
+        WANT_WIKI_MODEL = Boolean.getBoolean("wikiModel");
+        HybridQuery.Mode fusion = "none".equals(FUSION) ? null : HybridQuery.Mode.valueOf(FUSION.toUpperCase(Locale.ROOT));
 
         String RESULTS_DIR;
 
@@ -77,49 +116,30 @@ public class Phase3 {
         // INDEX CREATION
         String indexLocation = ("index");
 
-        Directory directory = FSDirectory.open(Paths.get(indexLocation));
+        Directory directory = DirectoryFactory.open(Paths.get(indexLocation));
 
         try {
             IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+            // LARGER RAM BUFFER, NO COMPOUND FILES AND TUNED MERGES WITH -DbulkLoad
+            BulkLoad.configure(config);
 
             IndexWriter writer = new IndexWriter(directory, config);
 
-            FieldType contentFT = new FieldType(TextField.TYPE_STORED);
-            contentFT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
-            contentFT.setTokenized(true);
-            contentFT.setStored(true);
-            contentFT.setStoreTermVectors(true);
-            contentFT.setStoreTermVectorOffsets(true);
-            contentFT.setStoreTermVectorPositions(true);
-
-            FieldType codeFT = new FieldType();
-            codeFT.setIndexOptions(IndexOptions.NONE);
-            codeFT.setStored(true);
-
-            // TXT FILE EDITING FOR DOCUMENTS
-            String docs_file = ReadEntireFileIntoAString(READ_DIR);
-            // SPLIT THE DOCUMENTS OF THE TXT FILE
-            String[] docs = txtSplitter(docs_file, "///");
-
-            String queries_file = ReadEntireFileIntoAString(QUERIES_DIR);               // ---- QUERIES ----
-            String[] queries = editQueries(txtSplitter(queries_file, "///"), "Q\\d+", "");
-
-            // ADDING DOCS TO INDEX
-            for (int i = 0; i < docs.length; i++) {
-                // PARSE EACH DOCUMENT AND RETURN IT AS A DocTuple OBJECT
-                DocTuple document = parseDocument(docs[i]);
-
-                // ADD DOCUMENT
-                Document doc = new Document();
+            String[] queries = readQueries(QUERIES_DIR);                                  // ---- QUERIES ----
 
-                // ADD FIELDS TO DOCUMENT
-                doc.add(new Field("code", document.getCode(), codeFT));
-                doc.add(new Field("content", document.getText(), contentFT));
-
-                // ADD DOCUMENT TO THE INDEX
-                writer.addDocument(doc);
+            // ADDING DOCS TO INDEX, STREAMED FROM THE TXT FILE ONE RECORD AT A TIME
+            try (CorpusReader corpus = new CorpusReader(READ_DIR, Phase3::parseDocument)) {
+                // EACH RECORD IS PARSED INTO A DocTuple OBJECT AS IT IS READ
+                for (DocTuple document : corpus) {
+                    addDoc(writer, document);
+                }
             }
+            long commitStart = Metrics.start();
+            BulkLoad.finish(writer);
             writer.commit();
+            Metrics.stop(Metrics.Stage.COMMIT, commitStart);
+            BulkLoad.report(directory);
+            DirectoryFactory.report(directory);
 
 
             // INITIALIZE THE INDEX READER
@@ -128,10 +148,17 @@ public class Phase3 {
 
             FieldValuesSentenceIterator fieldValuesSentenceIterator = new FieldValuesSentenceIterator(reader, fieldName);
 
-            Word2Vec vec;
+            Word2Vec vec = null;
+            EmbeddingLookup mapped = null;
+
+            File mappedFile = new File(modelPath + MappedEmbeddings.EXTENSION);
+            if (MAPPED_MODEL && modelFile.exists() && mappedFile.lastModified() >= modelFile.lastModified()) {
+                // NO PARSING, THE VECTORS ARE PAGED IN ON FIRST USE AND SHARED WITH OTHER PROCESSES
+                LOG.info("Mapping model from: {}", mappedFile);
+                mapped = MappedEmbeddings.open(mappedFile.toPath());
 
-            if (modelFile.exists()) {
-                System.out.println("Model already exists at: " + modelPath);
+            } else if (modelFile.exists()) {
+                LOG.info("Model already exists at: {}", modelPath);
                 vec = WordVectorSerializer.readWord2VecModel(modelPath);
 
             } else {
@@ -150,84 +177,124 @@ public class Phase3 {
                 vec.fit();
 
                 WordVectorSerializer.writeWord2VecModel(vec, modelPath);
-                System.out.println("Model saved to: " + modelPath);
+                LOG.info("Model saved to: {}", modelPath);
             }
 
+            // SAVED RIGHT AWAY, SO THE MODEL DOES NOT STAY ON THE HEAP UNTIL THE END OF THE RUN
+            if (vec != null) WordVectorSerializer.writeWord2VecModel(vec, "target/ch5w2v.zip");
 
-            try {
-                IndexSearcher searcher = new IndexSearcher(reader);
-                // CHECK WHICH SIMILARITY TO USE
-                if (WANT_WORD_EMBEDDINGS_SIMILARITY) searcher.setSimilarity(new BM25Similarity(1.5f, 0.75f));
-                else searcher.setSimilarity(new WordEmbeddingsSimilarity(vec, fieldName, WordEmbeddingsSimilarity.Smoothing.MEAN));
-
-                String qCode = "";
-
-                BufferedWriter fileWriter = new BufferedWriter(new FileWriter(RESULTS_DIR, StandardCharsets.UTF_8));
-                for (int i = 0; i < queries.length; i++) {
-
-                    System.out.println("Query " + i);
-                    int temp = i + 1;
-                    qCode = (i < 9) ? "Q0" + temp : "Q" + temp;
-                    // CURRENT QUERY
-                    String queryString = queries[i];
+            // OTHERWISE COPY THE WORD VECTORS ONCE INTO A FLAT OFF-HEAP TABLE, SCORING READS THEM WITHOUT ALLOCATING
+            EmbeddingLookup fullPrecision = (mapped != null) ? mapped : EmbeddingTable.of(vec);
+            if (vec != null && MAPPED_MODEL) {
+                MappedEmbeddings.write(fullPrecision, mappedFile.toPath());
+                LOG.info("Mapped copy of the model saved to: {}", mappedFile);
+            }
+            // THE TABLE HOLDS EVERY VECTOR THE SEARCH NEEDS, THE MODEL CAN BE COLLECTED
+            vec = null;
+            EmbeddingLookup embeddings = QUANTIZED ? QuantizedEmbeddings.of(fullPrecision) : fullPrecision;
+            if (QUANTIZED) {
+                // ONLY THE QUANTIZED COPY IS SEARCHED, THE FULL PRECISION TABLE CAN BE COLLECTED
+                fullPrecision = null;
+                mapped = null;
+            }
 
-                    String[] split = queryString.split(" ");
+            // VECTORIZE EVERY SEGMENT ONCE, MERGED SEGMENTS ARE VECTORIZED WHEN THE MERGE COMPLETES
+            DocVectorStore docVectors = DOC_VECTORS ? new DocVectorStore(directory, DocVectorStore.embeddings(embeddings, fieldName)) : null;
+            if (docVectors != null) {
+                writer.getConfig().setMergedSegmentWarmer(docVectors.warmer());
+                docVectors.warm(reader);
+                docVectors.purge(reader);
+            }
+            // THE GRAPH IS SAVED NEXT TO THE INDEX, BUT THE INDEX IS DELETED AT THE END OF EVERY RUN, SO EVERY RUN BUILDS IT AGAIN
+            boolean dense = "hnsw".equals(FIRST_STAGE);
+            if (dense && docVectors == null) throw new IllegalArgumentException("-DfirstStage=hnsw needs the document vectors, remove -DdocVectors=false");
+            if (dense && fusion != null) throw new IllegalArgumentException("-Dfusion needs the lexical first stage, remove -DfirstStage=hnsw");
+            HnswIndex hnsw = dense ? HnswIndex.open(directory, reader, docVectors, HNSW_M, HNSW_EF_CONSTRUCTION) : null;
 
-                    INDArray denseAverageQueryVector = vec.getWordVectorsMean(Arrays.asList(split));
+            // CHECK WHICH SIMILARITY TO USE, THE FUSION ALWAYS FUSES BM25
+            Similarity similarity;
+            if (WANT_WORD_EMBEDDINGS_SIMILARITY || fusion != null) similarity = new BM25Similarity(1.5f, 0.75f);
+            else similarity = new WordEmbeddingsSimilarity(embeddings, fieldName, WordEmbeddingsSimilarity.Smoothing.MEAN, docVectors);
 
-                    QueryParser parser = new QueryParser(fieldName, new WhitespaceAnalyzer());
-                    Query query = parser.parse(queryString);
+            BatchReranker reranker = new BatchReranker(reader, embeddings, fieldName, docVectors);
 
-                    TopDocs hits = searcher.search(query, 50);
-                    List<DocTuple> cosDocs = new ArrayList<>();
+            try (BatchSearcher batchSearcher = new BatchSearcher(reader, similarity, new WhitespaceAnalyzer(), fieldName, SEARCH_THREADS)) {
 
-                    for (int j = 0; j < hits.scoreDocs.length; j++) {
-                        ScoreDoc scoreDoc = hits.scoreDocs[j];
-                        Document doc = searcher.doc(scoreDoc.doc);
+                // FIRST STAGE OF ALL QUERIES CONCURRENTLY, THE HITS COME BACK IN QUERY ORDER
+                float[][] unitQueryVectors = new float[queries.length][];
+                List<TopDocs> candidates = batchSearcher.search(queries, (i, query, searcher) -> {
 
-                        // IF YOU WANT TO PRINT THE SCORE AND THE ID OF THE DOCUMENT
-                        System.out.println("Code: " + doc.get("code") + " : " + scoreDoc.score);
+                    LOG.info("Query {}", i);
+                    // CURRENT QUERY
+                    String queryString = queries[i];
 
-                        Terms docTerms = reader.getTermVector(scoreDoc.doc, fieldName);
+                    String[] split = queryString.split(" ");
 
-                        INDArray denseAverageDocumentVector = VectorizeUtils.toDenseAverageVector(docTerms, vec);
-                        double cosineSim = Transforms.cosineSim(denseAverageQueryVector, denseAverageDocumentVector);
-                        // IF YOU WANT TO PRINT THE COSINE_SIMILARITY_DENSE_AVG VALUE
-                        System.out.println("cosineSimilarityDenseAvg=" + cosineSim);
-                        String code = doc.getField("code").stringValue().trim();
-                        cosDocs.add(new DocTuple(code, cosineSim));
+                    float[] denseAverageQueryVector = VectorizeUtils.toDenseMeanVector(Arrays.asList(split), embeddings, new float[embeddings.dimension()]);
+
+                    // EVERY TASK ONLY WRITES THE SLOT OF ITS OWN QUERY
+                    float[] unitQueryVector = (denseAverageQueryVector != null) ? DocVectorStore.normalize(denseAverageQueryVector) : null;
+                    unitQueryVectors[i] = unitQueryVector;
+
+                    long searchStart = Metrics.start();
+                    TopDocs hits;
+                    if (hnsw != null) {
+                        // APPROXIMATE NEAREST DOCUMENT VECTORS, NO TERM HAS TO MATCH
+                        hits = (unitQueryVector != null) ? hnsw.search(unitQueryVector, 50, HNSW_EF_SEARCH) : new TopDocs(0, new ScoreDoc[0], Float.NaN);
+                    } else if (fusion != null) {
+                        // BM25 AND COSINE FUSED IN THE SAME PASS, THE HITS ARE THE FINAL RANKING
+                        HybridQuery hybridQuery = new HybridQuery(query, unitQueryVector, docVectors, embeddings, fieldName, fusion, FUSION_ALPHA);
+                        hits = searcher.search(hybridQuery, new HybridCollector.Manager(fusion, FUSION_ALPHA, FUSION_POOL, RRF_K, 50));
+                    } else {
+                        hits = searcher.search(query, 50);
                     }
+                    Metrics.stop(Metrics.Stage.SEARCH, searchStart);
 
-                    //Sort the list based on cosSin in descending order
-                    Collections.sort(cosDocs, new Comparator<DocTuple>() {
-                        @Override
-                        public int compare(DocTuple o1, DocTuple o2) {
-                            // Sort in descending order (larger cosSin values first)
-                            return Double.compare(o2.getCosineSim(), o1.getCosineSim());
-                        }
-                    });
+                    for (ScoreDoc scoreDoc : hits.scoreDocs) {
+                        // THE SCORE AND THE ID OF THE DOCUMENT, PRINTED WITH THE org.example LOGGER AT DEBUG
+                        LOG.debug("Doc: {} : {}", scoreDoc.doc, scoreDoc.score);
+                    }
+                    return hits;
+                });
+
+                BatchReranker.Ranking[] rankings;
+                if (fusion != null) {
+                    rankings = new BatchReranker.Ranking[queries.length];
+                    for (int i = 0; i < rankings.length; i++) {
+                        if (candidates.get(i) != null) rankings[i] = BatchReranker.Ranking.of(candidates.get(i));
+                    }
+                } else {
+                    // RERANK ALL QUERIES AT ONCE, ONE MATRIX MULTIPLICATION OF THE CANDIDATE VECTORS WITH THE QUERY VECTORS
+                    long rerankStart = Metrics.start();
+                    rankings = reranker.rerank(unitQueryVectors, candidates.toArray(new TopDocs[0]), 50);
+                    Metrics.stop(Metrics.Stage.RERANK, rerankStart);
+                }
 
+                String qCode = "";
 
-                    // PRINT THE ORDERED DOCS
-                    for (DocTuple doc : cosDocs) {
-                        String docCode =  doc.getCode() ;
-                        String docCosSim = Double.toString(doc.getCosineSim());
+                TrecRunWriter runWriter = new TrecRunWriter(new BufferedWriter(new FileWriter(RESULTS_DIR, StandardCharsets.UTF_8)), "myIRMethod");
+                for (int i = 0; i < queries.length; i++) {
 
-                        String line = qCode + " 0 " + docCode + " 0 " +  docCosSim + " myIRMethod";
-                        fileWriter.write(line);
-                        fileWriter.newLine(); // Add a newline after each line if needed
-                        System.out.println("WRITE SUCCESSFULL");
+                    int temp = i + 1;
+                    qCode = (i < 9) ? "Q0" + temp : "Q" + temp;
+                    BatchReranker.Ranking cosDocs = rankings[i];
+                    if (cosDocs == null) continue;
 
+                    for (int j = 0; j < cosDocs.count; j++) {
+                        // THE COSINE_SIMILARITY_DENSE_AVG VALUE, PRINTED WITH THE org.example LOGGER AT DEBUG
+                        LOG.debug("Doc: {} cosineSimilarityDenseAvg={}", cosDocs.docs[j], cosDocs.scores[j]);
                     }
 
+                    // WRITE THE ORDERED DOCS, THE CODES ARE READ FROM DOC VALUES
+                    runWriter.write(qCode, reader, cosDocs.docs, cosDocs.scores, cosDocs.count);
+                    LOG.info("WRITE SUCCESSFULL");
+
                 }
 
-                fileWriter.close();
+                runWriter.close();
 
-            } catch (ParseException e) {
-                throw new RuntimeException(e);
             } finally {
-                WordVectorSerializer.writeWord2VecModel(vec, "target/ch5w2v.zip");
+                if (docVectors != null) docVectors.close();
                 writer.deleteAll();
                 writer.commit();
                 writer.close();
@@ -238,17 +305,60 @@ public class Phase3 {
             directory.close();
         }
 
-        System.out.println("PROGRAM FINISHED SUCCESSFULLY !");
+        Metrics.export();
+        LOG.info("PROGRAM FINISHED SUCCESSFULLY !");
+
+    }
+
 
+    /**          -------------------- addDoc function --------------------
+     *
+     * @param writer : IndexWriter for our index that adds the documents to it
+     * @param document : The parsed document with its code and content
+     */
+    static void addDoc(IndexWriter writer, DocTuple document) throws IOException {
+        // ADD DOCUMENT
+        Document doc = new Document();
+
+        // ADD FIELDS TO DOCUMENT
+        doc.add(new Field("code", document.getCode(), CODE_FT));
+        doc.add(new Field("content", document.getText(), CONTENT_FT));
+        // THE CODE AGAIN AS DOC VALUES, SO WRITING RESULTS NEEDS NO STORED FIELD ACCESS
+        doc.add(new SortedDocValuesField("code", new BytesRef(document.getCode())));
+
+        // ADD DOCUMENT TO THE INDEX
+        long start = Metrics.start();
+        writer.addDocument(doc);
+        Metrics.stop(Metrics.Stage.INDEX, start);
+        Metrics.count("docs");
     }
 
+    private static FieldType contentFieldType() {
+        FieldType contentFT = new FieldType(TextField.TYPE_STORED);
+        contentFT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        contentFT.setTokenized(true);
+        contentFT.setStored(true);
+        contentFT.setStoreTermVectors(true);
+        contentFT.setStoreTermVectorOffsets(true);
+        contentFT.setStoreTermVectorPositions(true);
+        contentFT.freeze();
+        return contentFT;
+    }
+
+    private static FieldType codeFieldType() {
+        FieldType codeFT = new FieldType();
+        codeFT.setIndexOptions(IndexOptions.NONE);
+        codeFT.setStored(true);
+        codeFT.freeze();
+        return codeFT;
+    }
 
     /**          -------------------- parseDocument function --------------------
      *
      * @param doc : The document we want to parse in String form
      * @return : A DocTuple object after successfully parsing the document
      */
-    private static DocTuple parseDocument(String doc) {
+    static DocTuple parseDocument(String doc) {
 
         String code = doc.substring(0, 10);
         // CLEAR THE CODE FROM ALL LETTERS AND SPACES
@@ -265,6 +375,16 @@ public class Phase3 {
 
     }
 
+    /**          -------------------- readQueries function --------------------
+     *
+     * @param file : The queries file, queries separated by "///" and prefixed with their code
+     * @return : The query strings in file order, without their codes
+     */
+    static String[] readQueries(String file) throws FileNotFoundException {
+        String queries_file = ReadEntireFileIntoAString(file);
+        return editQueries(txtSplitter(queries_file, "///"), "Q\\d+", "");
+    }
+
     /**          -------------------- ReadEntireFileIntoAString function --------------------
      * Gets a file path and retuns the same file as a String object
      */
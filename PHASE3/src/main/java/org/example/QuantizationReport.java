@@ -0,0 +1,142 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+
+/**
+ * Compares the rankings of {@link QuantizedEmbeddings} with the full precision vectors they were made from: every
+ * query of the query file ranks every document of the corpus by the cosine of their mean word vectors, once per
+ * table, and the report gives how much of the full precision top k the quantized top k keeps, the cosine errors
+ * and the memory of both tables.
+ * Run with: java org.example.QuantizationReport [model] [documents] [queries]
+ */
+public final class QuantizationReport {
+
+    private final static int[] DEPTHS = {1, 10, 50};
+
+    private QuantizationReport() {
+        // no public constructors
+    }
+
+    /**          -------------------- main function --------------------
+     *
+     * @param args : The model (a mapped {@link MappedEmbeddings#EXTENSION} file or a Word2Vec model), the corpus and
+     *             the queries, defaults are the ones of Phase3
+     */
+    public static void main(String[] args) throws IOException {
+        String modelPath = args.length > 0 ? args[0] : "models\\my_word2vec.zip";
+        String documentsPath = args.length > 1 ? args[1] : Phase3.READ_DIR;
+        String queriesPath = args.length > 2 ? args[2] : Phase3.QUERIES_DIR;
+
+        EmbeddingLookup full = load(modelPath);
+        QuantizedEmbeddings quantized = QuantizedEmbeddings.of(full);
+
+        List<float[]> fullDocuments = new ArrayList<>();
+        List<float[]> quantizedDocuments = new ArrayList<>();
+        try (CorpusReader corpus = new CorpusReader(documentsPath, Phase3::parseDocument)) {
+            for (DocTuple document : corpus) {
+                List<String> words = Arrays.asList(document.getText().split("\\s+"));
+                fullDocuments.add(unit(words, full));
+                quantizedDocuments.add(unit(words, quantized));
+            }
+        }
+
+        String[] queries = Phase3.readQueries(queriesPath);
+        double[] overlap = new double[DEPTHS.length];
+        double errorSum = 0;
+        double maxError = 0;
+        long pairs = 0;
+        int evaluated = 0;
+        int documents = fullDocuments.size();
+        double[] fullScores = new double[documents];
+        double[] quantizedScores = new double[documents];
+        for (String query : queries) {
+            List<String> words = Arrays.asList(query.trim().split("\\s+"));
+            float[] fullQuery = unit(words, full);
+            float[] quantizedQuery = unit(words, quantized);
+            if (fullQuery == null || quantizedQuery == null) continue;
+            for (int doc = 0; doc < documents; doc++) {
+                fullScores[doc] = dot(fullQuery, fullDocuments.get(doc));
+                quantizedScores[doc] = dot(quantizedQuery, quantizedDocuments.get(doc));
+                double error = Math.abs(fullScores[doc] - quantizedScores[doc]);
+                errorSum += error;
+                maxError = Math.max(maxError, error);
+                pairs++;
+            }
+            int[] fullRanking = rank(fullScores);
+            int[] quantizedRanking = rank(quantizedScores);
+            for (int d = 0; d < DEPTHS.length; d++) {
+                overlap[d] += overlap(fullRanking, quantizedRanking, Math.min(DEPTHS[d], documents));
+            }
+            evaluated++;
+        }
+
+        long fullBytes = (long) full.size() * full.dimension() * Float.BYTES;
+        System.out.println(String.format(Locale.ROOT, "Quantization report: %d words, %d dimensions, %d documents, %d of %d queries",
+                full.size(), full.dimension(), documents, evaluated, queries.length));
+        System.out.println(String.format(Locale.ROOT, "  vectors: %.1f MB float32, %.1f MB int8 (%.2fx smaller), max component error %.5f",
+                fullBytes / (1024.0 * 1024.0), quantized.vectorBytes() / (1024.0 * 1024.0),
+                fullBytes / (double) Math.max(1, quantized.vectorBytes()), quantized.maxError()));
+        System.out.println(String.format(Locale.ROOT, "  cosine error: mean %.6f, max %.6f", pairs == 0 ? 0 : errorSum / pairs, maxError));
+        for (int d = 0; d < DEPTHS.length; d++) {
+            System.out.println(String.format(Locale.ROOT, "  top %d overlap with full precision: %.4f",
+                    DEPTHS[d], evaluated == 0 ? 0 : overlap[d] / evaluated));
+        }
+    }
+
+    private static EmbeddingLookup load(String modelPath) throws IOException {
+        File mapped = modelPath.endsWith(MappedEmbeddings.EXTENSION) ? new File(modelPath) : new File(modelPath + MappedEmbeddings.EXTENSION);
+        if (mapped.exists()) {
+            return MappedEmbeddings.open(mapped.toPath());
+        }
+        return EmbeddingTable.of(WordVectorSerializer.readWord2VecModel(modelPath));
+    }
+
+    // The unit mean vector of the words, null if none of them has a vector
+    private static float[] unit(List<String> words, EmbeddingLookup embeddings) {
+        float[] mean = VectorizeUtils.toDenseMeanVector(words, embeddings, new float[embeddings.dimension()]);
+        return (mean != null) ? DocVectorStore.normalize(mean) : null;
+    }
+
+    // A document without a vector scores 0
+    private static double dot(float[] query, float[] document) {
+        if (document == null) return 0;
+        double dot = 0;
+        for (int i = 0; i < query.length; i++) {
+            dot += query[i] * document[i];
+        }
+        return dot;
+    }
+
+    // Document positions by descending score, ties by position
+    private static int[] rank(double[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Double.compare(scores[b], scores[a]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        int[] ranking = new int[order.length];
+        for (int i = 0; i < ranking.length; i++) ranking[i] = order[i];
+        return ranking;
+    }
+
+    // Fraction of the first k of the reference found in the first k of the other ranking
+    private static double overlap(int[] reference, int[] other, int k) {
+        if (k == 0) return 1;
+        boolean[] top = new boolean[reference.length];
+        for (int i = 0; i < k; i++) top[reference[i]] = true;
+        int found = 0;
+        for (int i = 0; i < k; i++) {
+            if (top[other[i]]) found++;
+        }
+        return found / (double) k;
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * {@link EmbeddingLookup} storing every component in one signed byte, a quarter of the memory of float vectors and
+ * a quarter of the memory traffic while summing word vectors. Each dimension has its own linear scale: the range
+ * [min, max] of the dimension over the vocabulary is split into 256 steps and a value decodes to
+ * code * scale + offset. {@link QuantizationReport} measures what this costs in ranking accuracy.
+ */
+public final class QuantizedEmbeddings implements EmbeddingLookup {
+
+    private final static int LEVELS = 255;
+
+    private final int dimension;
+    private final int size;
+    // A direct buffer holds at most 2 GB, larger tables are split into chunks of whole rows
+    private final ByteBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final float[] scales;
+    private final float[] offsets;
+    private final EmbeddingTable.Words words;
+    private final String key;
+
+    private QuantizedEmbeddings(int dimension, int size, ByteBuffer[] chunks, int rowsPerChunk, float[] scales,
+                                float[] offsets, EmbeddingTable.Words words, String key) {
+        this.dimension = dimension;
+        this.size = size;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.scales = scales;
+        this.offsets = offsets;
+        this.words = words;
+        this.key = key;
+    }
+
+    /**          -------------------- of function --------------------
+     *
+     * @param source : The full precision vectors, read twice: once for the ranges, once to encode
+     * @return : The quantized vectors with the same words and ids, the source is not used afterwards
+     */
+    public static QuantizedEmbeddings of(EmbeddingLookup source) {
+        int dimension = source.dimension();
+        int size = source.size();
+        float[] vector = new float[dimension];
+
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int id = 0; id < size; id++) {
+            source.get(id, vector);
+            for (int i = 0; i < dimension; i++) {
+                min[i] = Math.min(min[i], vector[i]);
+                max[i] = Math.max(max[i], vector[i]);
+            }
+        }
+        float[] scales = new float[dimension];
+        float[] offsets = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            if (size == 0) break;
+            // A constant dimension gets scale 0 and decodes exactly to its value
+            scales[i] = (max[i] - min[i]) / LEVELS;
+            offsets[i] = min[i] + 128 * scales[i];
+        }
+
+        int rowsPerChunk = Math.max(1, Math.min(size, Integer.MAX_VALUE / dimension));
+        ByteBuffer[] chunks = new ByteBuffer[(size + rowsPerChunk - 1) / rowsPerChunk];
+        EmbeddingTable.WordIds words = new EmbeddingTable.WordIds(size);
+        for (int id = 0; id < size; id++) {
+            int chunk = id / rowsPerChunk;
+            if (chunks[chunk] == null) {
+                chunks[chunk] = ByteBuffer.allocateDirect(Math.min(rowsPerChunk, size - chunk * rowsPerChunk) * dimension);
+            }
+            int offset = (id % rowsPerChunk) * dimension;
+            source.get(id, vector);
+            for (int i = 0; i < dimension; i++) {
+                int code = (scales[i] == 0) ? 0 : Math.round((vector[i] - min[i]) / scales[i]) - 128;
+                chunks[chunk].put(offset + i, (byte) Math.max(-128, Math.min(127, code)));
+            }
+            BytesRef word = source.word(id);
+            words.add(word.bytes, word.offset, word.length);
+        }
+        return new QuantizedEmbeddings(dimension, size, chunks, rowsPerChunk, scales, offsets, words, source.key() + "q8");
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int id(BytesRef word) {
+        return words.find(word);
+    }
+
+    @Override
+    public BytesRef word(int id) {
+        return words.word(id);
+    }
+
+    @Override
+    public void addTo(int id, float scale, float[] accumulator) {
+        ByteBuffer chunk = chunks[id / rowsPerChunk];
+        int offset = (id % rowsPerChunk) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            accumulator[i] += scale * (chunk.get(offset + i) * scales[i] + offsets[i]);
+        }
+    }
+
+    @Override
+    public float[] get(int id, float[] into) {
+        ByteBuffer chunk = chunks[id / rowsPerChunk];
+        int offset = (id % rowsPerChunk) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            into[i] = chunk.get(offset + i) * scales[i] + offsets[i];
+        }
+        return into;
+    }
+
+    @Override
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return : Bytes of the codes plus the scales and offsets, the words excluded
+     */
+    public long vectorBytes() {
+        return (long) size * dimension + 2L * Float.BYTES * dimension;
+    }
+
+    /**
+     * @return : The largest difference between a component and its decoded value, half a step of its dimension
+     */
+    public float maxError() {
+        float error = 0;
+        for (float scale : scales) {
+            error = Math.max(error, scale / 2);
+        }
+        return error;
+    }
+
+}
@@ -1,6 +1,5 @@
 package org.example;
 
-import com.google.common.io.Files;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -11,8 +10,6 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
 import org.deeplearning4j.models.word2vec.Word2Vec;
 import org.deeplearning4j.text.tokenization.tokenizerfactory.DefaultTokenizerFactory;
@@ -25,12 +22,8 @@ import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 
 import java.io.File;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Ranking tests evaluating different {@link Similarity} implementations against {@link WordEmbeddingsSimilarity}
@@ -39,8 +32,7 @@ public class RankingTest {
 
     @Test
     public void testRankingWithDifferentSimilarities() throws Exception {
-        Path path = Paths.get(Files.createTempDir().toURI());
-        Directory directory = FSDirectory.open(path);
+        Directory directory = DirectoryFactory.open(DirectoryFactory.Backend.RAM, null);
 
         try {
 
@@ -82,7 +74,7 @@ public class RankingTest {
                 IndexReader reader = DirectoryReader.open(directory);
                 try {
                     IndexSearcher searcher = new IndexSearcher(reader);
-                    Terms fieldTerms = MultiFields.getTerms(reader, "title");
+                    TermOrdinals ordinals = TermOrdinals.of(MultiFields.getTerms(reader, "title"));
 
                     System.out.println(similarity);
                     searcher.setSimilarity(similarity);
@@ -90,6 +82,9 @@ public class RankingTest {
                     String queryString = "bernhard riemann influence";
                     Query query = parser.parse(queryString);
                     TopDocs hits = searcher.search(query, 10);
+                    // the same for every hit, only the query terms are looked up
+                    SparseVector queryVector = VectorizeUtils.toSparseTFIDFVector(
+                            Arrays.asList(queryString.split(" ")), ordinals, reader.numDocs());
                     for (int i = 0; i < hits.scoreDocs.length; i++) {
                         ScoreDoc scoreDoc = hits.scoreDocs[i];
                         Document doc = searcher.doc(scoreDoc.doc);
@@ -97,33 +92,10 @@ public class RankingTest {
                         String title = doc.get("title");
                         System.out.println(title + " : " + scoreDoc.score);
                         if (similarity instanceof ClassicSimilarity) {
-                            double[] queryVector = new double[(int) fieldTerms.size()];
-                            Arrays.fill(queryVector, 0d);
-                            for (String queryTerm : queryString.split(" ")) {
-                                TermsEnum iterator = fieldTerms.iterator();
-                                int j = 0;
-                                BytesRef term;
-                                while ((term = iterator.next()) != null) {
-
-                                    TermsEnum.SeekStatus seekStatus = iterator.seekCeil(term);
-                                    if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-                                        iterator = fieldTerms.iterator();
-                                    }
-                                    if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
-                                        if (term.utf8ToString().equals(queryTerm)) {
-                                            double tf = iterator.totalTermFreq();
-                                            double docFreq = iterator.docFreq();
-                                            queryVector[j] = VectorizeUtils.tfIdf(reader.numDocs(), tf, docFreq);
-                                        }
-                                    }
-                                    j++;
-                                }
-                            }
-
                             Terms docTerms = reader.getTermVector(scoreDoc.doc, "title");
-                            double[] documentVector = VectorizeUtils.toSparseTFIDFDoubleArray(docTerms, fieldTerms, reader.numDocs());
+                            SparseVector documentVector = VectorizeUtils.toSparseTFIDFVector(docTerms, ordinals, reader.numDocs());
 
-                            System.out.println("cosineSimilarity=" + VectorizeUtils.cosineSimilarity(queryVector, documentVector));
+                            System.out.println("cosineSimilarity=" + queryVector.cosine(documentVector));
                         }
                     }
 
@@ -141,8 +113,7 @@ public class RankingTest {
 
     @Test
     public void testRankingWithTFIDFAveragedWordEmbeddings() throws Exception {
-        Path path = Paths.get(Files.createTempDir().toURI());
-        Directory directory = FSDirectory.open(path);
+        Directory directory = DirectoryFactory.open(DirectoryFactory.Backend.RAM, null);
 
         try {
 
@@ -202,31 +173,16 @@ public class RankingTest {
                 String queryString = "bernhard riemann influence";
 
                 Terms fieldTerms = MultiFields.getTerms(reader, fieldName);
+                VectorizeUtils.TermContextCache termContexts = new VectorizeUtils.TermContextCache(reader, fieldName);
 
                 INDArray denseAverageTFIDFQueryVector = Nd4j.zeros(vec.getLayerSize());
-                Map<String, Double> tfIdfs = new HashMap<>();
                 String[] split = queryString.split(" ");
                 for (String queryTerm : split) {
-                    TermsEnum iterator = fieldTerms.iterator();
-                    BytesRef term;
-                    while ((term = iterator.next()) != null) {
-                        TermsEnum.SeekStatus seekStatus = iterator.seekCeil(term);
-                        if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-                            iterator = fieldTerms.iterator();
-                        }
-                        if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
-                            String string = term.utf8ToString();
-                            if (string.equals(queryTerm)) {
-                                double tf = iterator.totalTermFreq();
-                                double docFreq = iterator.docFreq();
-                                double tfIdf = VectorizeUtils.tfIdf(reader.numDocs(), tf, docFreq);
-                                tfIdfs.put(string, tfIdf);
-                            }
-                        }
-                    }
-                    Double n = tfIdfs.get(queryTerm);
+                    double n = termContexts.tfIdf(queryTerm);
                     INDArray vector = vec.getLookupTable().vector(queryTerm);
-                    denseAverageTFIDFQueryVector.addi(vector.div(n));
+                    if (n != 0 && vector != null) {
+                        denseAverageTFIDFQueryVector.addi(vector.div(n));
+                    }
                 }
 
                 INDArray denseAverageQueryVector = vec.getWordVectorsMean(Arrays.asList(split));
@@ -245,7 +201,7 @@ public class RankingTest {
                     Terms docTerms = reader.getTermVector(scoreDoc.doc, fieldName);
 
                     INDArray denseAverageDocumentVector = VectorizeUtils.toDenseAverageVector(docTerms, vec);
-                    INDArray denseAverageTFIDFDocumentVector = VectorizeUtils.toDenseAverageTFIDFVector(docTerms, reader.numDocs(), vec);
+                    INDArray denseAverageTFIDFDocumentVector = VectorizeUtils.toDenseAverageTFIDFVector(docTerms, fieldTerms, reader.numDocs(), vec);
 
                     System.out.println("cosineSimilarityDenseAvg=" + Transforms.cosineSim(denseAverageQueryVector, denseAverageDocumentVector));
                     System.out.println("cosineSimilarityDenseAvgTFIDF=" + Transforms.cosineSim(denseAverageTFIDFQueryVector, denseAverageTFIDFDocumentVector));
@@ -0,0 +1,170 @@
+package org.example;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+/**
+ * A sparse vector over the terms of a field: the {@link TermOrdinals} of its non-zero terms in increasing order and
+ * their weights. Dot product and cosine walk both vectors once in a merge join, so they cost time proportional to
+ * the number of non-zero terms, not to the size of the vocabulary.
+ */
+public final class SparseVector {
+
+    private final int[] ords;
+    private final float[] weights;
+    private final int size;
+    private final double norm;
+
+    private SparseVector(int[] ords, float[] weights, int size) {
+        this.ords = ords;
+        this.weights = weights;
+        this.size = size;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (double) weights[i] * weights[i];
+        }
+        this.norm = Math.sqrt(sum);
+    }
+
+    /**
+     * @return : The number of non-zero terms
+     */
+    public int size() {
+        return size;
+    }
+
+    public int ord(int i) {
+        return ords[i];
+    }
+
+    public float weight(int i) {
+        return weights[i];
+    }
+
+    public double norm() {
+        return norm;
+    }
+
+    /**          -------------------- dot function --------------------
+     *
+     * @param other : A vector over the same {@link TermOrdinals}
+     * @return : The sum of the products of the weights of the common terms
+     */
+    public double dot(SparseVector other) {
+        double dot = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            int ord = ords[i];
+            int otherOrd = other.ords[j];
+            if (ord < otherOrd) {
+                i++;
+            } else if (ord > otherOrd) {
+                j++;
+            } else {
+                dot += (double) weights[i++] * other.weights[j++];
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * @return : The cosine similarity, 0 if one of the vectors has no non-zero term
+     */
+    public double cosine(SparseVector other) {
+        if (norm == 0 || other.norm == 0) {
+            return 0;
+        }
+        return dot(other) / (norm * other.norm);
+    }
+
+    /**
+     * @return : The dense form, positioned like {@link VectorizeUtils#toSparseTFIDFDoubleArray}
+     */
+    public double[] toDense(int dimension) {
+        double[] dense = new double[dimension];
+        for (int i = 0; i < size; i++) {
+            dense[ords[i]] = weights[i];
+        }
+        return dense;
+    }
+
+    /**
+     * Collects terms in any order, e.g. the terms of a query. A term added twice keeps its first weight.
+     */
+    public final static class Builder {
+        private int[] ords = new int[8];
+        private float[] weights = new float[8];
+        private int size;
+
+        public Builder add(int ord, float weight) {
+            if (size == ords.length) {
+                ords = ArrayUtil.grow(ords, size + 1);
+                weights = ArrayUtil.grow(weights, size + 1);
+            }
+            ords[size] = ord;
+            weights[size] = weight;
+            size++;
+            return this;
+        }
+
+        public SparseVector build() {
+            // Stable, so the first weight of a duplicate comes first and is kept
+            new InPlaceMergeSorter() {
+                @Override
+                protected int compare(int i, int j) {
+                    return Integer.compare(ords[i], ords[j]);
+                }
+
+                @Override
+                protected void swap(int i, int j) {
+                    int ord = ords[i];
+                    ords[i] = ords[j];
+                    ords[j] = ord;
+                    float weight = weights[i];
+                    weights[i] = weights[j];
+                    weights[j] = weight;
+                }
+            }.sort(0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique > 0 && ords[unique - 1] == ords[i]) continue;
+                ords[unique] = ords[i];
+                weights[unique] = weights[i];
+                unique++;
+            }
+            return new SparseVector(Arrays.copyOf(ords, unique), Arrays.copyOf(weights, unique), unique);
+        }
+    }
+
+    /**
+     * Appends terms already in increasing ordinal order, e.g. the terms of a document term vector
+     */
+    final static class SortedBuilder {
+        private int[] ords;
+        private float[] weights;
+        private int size;
+
+        SortedBuilder(int capacity) {
+            this.ords = new int[Math.max(1, capacity)];
+            this.weights = new float[ords.length];
+        }
+
+        void add(int ord, float weight) {
+            if (size == ords.length) {
+                ords = ArrayUtil.grow(ords, size + 1);
+                weights = ArrayUtil.grow(weights, size + 1);
+            }
+            ords[size] = ord;
+            weights[size] = weight;
+            size++;
+        }
+
+        SparseVector build() {
+            return new SparseVector(ords, weights, size);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Reads the stored values of one field of every live document ahead of its consumer. The segments are split into
+ * shards of consecutive doc ids, background threads fill one bounded queue per shard, and the consumer drains the
+ * shards in order, so the values come back in doc id order while the next shards are already being read. At most
+ * (threads x queue size) values are buffered.
+ */
+final class StoredFieldPrefetcher implements Closeable {
+
+    // Threads reading stored fields ahead of the trainer (-DprefetchThreads=N)
+    private final static int THREADS = Integer.parseInt(System.getProperty("prefetchThreads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+    // Values buffered per shard (-DprefetchQueue=N)
+    private final static int QUEUE_SIZE = Integer.parseInt(System.getProperty("prefetchQueue", "1024"));
+    // Largest number of doc ids per shard, larger segments are split (-DprefetchShardDocs=N)
+    private final static int SHARD_DOCS = Integer.parseInt(System.getProperty("prefetchShardDocs", "8192"));
+
+    /**
+     * The stored value of a live document, doc is the id in the top level reader
+     */
+    final static class Value {
+        final int doc;
+        final String value;
+
+        private Value(int doc, String value) {
+            this.doc = doc;
+            this.value = value;
+        }
+    }
+
+    // Last element of the queue of every shard
+    private final static Value END = new Value(-1, null);
+
+    private final static class Shard {
+        private final LeafReaderContext leaf;
+        private final int from;
+        private final int to;
+
+        private Shard(LeafReaderContext leaf, int from, int to) {
+            this.leaf = leaf;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * The queues of one pass over the shards. A cancelled pass is abandoned by the consumer: its queues are cleared
+     * so that no worker stays blocked on a full one, and its workers stop before their next value
+     */
+    private final static class Pass {
+        private final List<BlockingQueue<Value>> queues;
+        private final AtomicInteger nextShard = new AtomicInteger();
+        private volatile Exception failure;
+        private volatile boolean cancelled;
+
+        private Pass(int shards) {
+            queues = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_SIZE));
+            }
+        }
+    }
+
+    private final Set<String> fields;
+    private final String field;
+    private final List<Shard> shards = new ArrayList<>();
+    private ExecutorService executor;
+
+    // State of the current pass over the shards, read by the consumer only
+    private Pass pass;
+    private int current;
+    private Value pending;
+
+    StoredFieldPrefetcher(IndexReader reader, String field) {
+        this.field = field;
+        this.fields = Collections.singleton(field);
+        for (LeafReaderContext leaf : reader.leaves()) {
+            int maxDoc = leaf.reader().maxDoc();
+            for (int from = 0; from < maxDoc; from += SHARD_DOCS) {
+                shards.add(new Shard(leaf, from, Math.min(maxDoc, from + SHARD_DOCS)));
+            }
+        }
+    }
+
+    /**
+     * @return : true if another value follows, starts the first pass if needed
+     */
+    boolean hasNext() {
+        if (pending == null) {
+            pending = take();
+        }
+        return pending != END;
+    }
+
+    /**
+     * @return : The next value in doc id order, null at the end of the pass
+     */
+    Value next() {
+        if (!hasNext()) {
+            return null;
+        }
+        Value value = pending;
+        pending = null;
+        return value;
+    }
+
+    /**
+     * Cancels the current pass, the next call starts again from the first document
+     */
+    void reset() {
+        cancel();
+    }
+
+    @Override
+    public void close() {
+        cancel();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private Value take() {
+        if (pass == null) {
+            start();
+        }
+        try {
+            while (current < pass.queues.size()) {
+                Value value = pass.queues.get(current).take();
+                if (value != END) {
+                    return value;
+                }
+                if (pass.failure != null) {
+                    throw new RuntimeException(pass.failure);
+                }
+                // Done with the shard, let its queue go
+                pass.queues.set(current++, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading " + field, e);
+        }
+        return END;
+    }
+
+    private void start() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, shards.size())), runnable -> {
+                Thread thread = new Thread(runnable, "prefetch-" + field);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Pass started = new Pass(shards.size());
+        pass = started;
+        current = 0;
+        pending = null;
+        for (int i = 0; i < Math.min(THREADS, shards.size()); i++) {
+            executor.execute(() -> {
+                // Shards are taken in order, so the shard the consumer waits for is always being read
+                int shard;
+                while (!started.cancelled && (shard = started.nextShard.getAndIncrement()) < shards.size()) {
+                    if (!fill(started, shards.get(shard), started.queues.get(shard))) {
+                        return;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return : false if the pass was cancelled, the queue is then abandoned and gets no END
+     */
+    private boolean fill(Pass pass, Shard shard, BlockingQueue<Value> queue) {
+        try {
+            try {
+                Bits liveDocs = shard.leaf.reader().getLiveDocs();
+                for (int doc = shard.from; doc < shard.to; doc++) {
+                    if (pass.cancelled) return false;
+                    if (liveDocs != null && !liveDocs.get(doc)) continue;
+                    Document document = shard.leaf.reader().document(doc, fields);
+                    IndexableField value = document.getField(field);
+                    if (value != null && value.stringValue() != null) {
+                        queue.put(new Value(shard.leaf.docBase + doc, value.stringValue()));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Thrown by the consumer at the end of the shard
+                if (pass.failure == null) pass.failure = e;
+            }
+            if (pass.cancelled) return false;
+            queue.put(END);
+            return true;
+        } catch (InterruptedException e) {
+            // Only close interrupts the workers, nobody reads the queue anymore
+            return false;
+        }
+    }
+
+    private void cancel() {
+        if (pass != null) {
+            pass.cancelled = true;
+            for (BlockingQueue<Value> queue : pass.queues) {
+                // Wakes a worker blocked on a full queue, it sees the cancel before its next value
+                if (queue != null) queue.clear();
+            }
+        }
+        pass = null;
+        pending = null;
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The terms of one field in sorted order with their index wide statistics. The ordinal of a term is its position in
+ * the field, the same position {@link VectorizeUtils#toSparseTFIDFDoubleArray(Terms, Terms, double)} uses as index.
+ * Built with one pass over the field, read-only afterwards and safe to share between threads.
+ */
+public final class TermOrdinals {
+
+    // The UTF-8 bytes of all terms back to back, term i spans starts[i] to starts[i + 1]
+    private final byte[] bytes;
+    private final int[] starts;
+    private final int[] docFreqs;
+    private final long[] totalTermFreqs;
+    private final int size;
+
+    private TermOrdinals(byte[] bytes, int[] starts, int[] docFreqs, long[] totalTermFreqs, int size) {
+        this.bytes = bytes;
+        this.starts = starts;
+        this.docFreqs = docFreqs;
+        this.totalTermFreqs = totalTermFreqs;
+        this.size = size;
+    }
+
+    /**          -------------------- of function --------------------
+     *
+     * @param fieldTerms : The terms of the field in the whole index, e.g. from MultiFields.getTerms
+     * @return : The ordinals and statistics of every term of the field
+     */
+    public static TermOrdinals of(Terms fieldTerms) throws IOException {
+        int capacity = (fieldTerms.size() > 0) ? (int) fieldTerms.size() : 16;
+        byte[] bytes = new byte[capacity * 8];
+        int[] starts = new int[capacity + 1];
+        int[] docFreqs = new int[capacity];
+        long[] totalTermFreqs = new long[capacity];
+        int size = 0;
+        TermsEnum termsEnum = fieldTerms.iterator();
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            docFreqs = ArrayUtil.grow(docFreqs, size + 1);
+            totalTermFreqs = ArrayUtil.grow(totalTermFreqs, size + 1);
+            starts = ArrayUtil.grow(starts, size + 2);
+            bytes = ArrayUtil.grow(bytes, starts[size] + term.length);
+            System.arraycopy(term.bytes, term.offset, bytes, starts[size], term.length);
+            starts[size + 1] = starts[size] + term.length;
+            docFreqs[size] = termsEnum.docFreq();
+            totalTermFreqs[size] = termsEnum.totalTermFreq();
+            size++;
+        }
+        return new TermOrdinals(bytes, starts, docFreqs, totalTermFreqs, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return : The ordinal of the term, -1 if the field does not contain it
+     */
+    public int ord(BytesRef term) {
+        return ord(term, 0);
+    }
+
+    /**
+     * @param from : No smaller ordinal is searched, terms looked up in sorted order pass the previous ordinal + 1
+     * @return : The ordinal of the term, -1 if the field does not contain it
+     */
+    public int ord(BytesRef term, int from) {
+        int low = from;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int docFreq(int ord) {
+        return docFreqs[ord];
+    }
+
+    public long totalTermFreq(int ord) {
+        return totalTermFreqs[ord];
+    }
+
+    public BytesRef term(int ord) {
+        return new BytesRef(bytes, starts[ord], starts[ord + 1] - starts[ord]);
+    }
+
+    // Unsigned byte order, the order of the terms dictionary
+    private int compare(int ord, BytesRef term) {
+        int start = starts[ord];
+        int length = starts[ord + 1] - start;
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (bytes[start + i] & 0xff) - (term.bytes[term.offset + i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return length - term.length;
+    }
+
+}
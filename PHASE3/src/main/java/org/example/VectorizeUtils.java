@@ -16,9 +16,17 @@ package org.example;/*
  */
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeSet;
 
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
@@ -36,7 +44,9 @@ public class VectorizeUtils {
   }
 
   /**
-   * create a sparse <code>Double</code> vector given doc and field term vectors using TF-IDF
+   * create a sparse <code>Double</code> vector given doc and field term vectors using TF-IDF.
+   * Legacy dense helper: it allocates and walks the whole vocabulary of the field, O(V) per document, use
+   * {@link #toSparseTFIDFVector(Terms, TermOrdinals, double)} on a search path
    *
    * @param docTerms   term vectors for a given document
    * @param fieldTerms field term vectors
@@ -49,20 +59,18 @@ public class VectorizeUtils {
     if (docTerms != null && fieldTerms.size() > -1) {
       tfIdfVector = new double[(int) fieldTerms.size()];
       int i = 0;
+      // both enums are sorted, a single merge pass lines up every doc term with its field term
       TermsEnum docTermsEnum = docTerms.iterator();
+      BytesRef docTerm = docTermsEnum.next();
       BytesRef term;
-      while ((term = fieldTermsEnum.next()) != null) {
-        TermsEnum.SeekStatus seekStatus = docTermsEnum.seekCeil(term);
-        if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-          docTermsEnum = docTerms.iterator();
+      while (docTerm != null && (term = fieldTermsEnum.next()) != null) {
+        while (docTerm != null && docTerm.compareTo(term) < 0) {
+          docTerm = docTermsEnum.next();
         }
-        if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
+        if (docTerm != null && docTerm.bytesEquals(term)) {
           long termFreq = docTermsEnum.totalTermFreq();
           int docFreq = fieldTermsEnum.docFreq();
-          double tfIdf = tfIdf(n, termFreq, docFreq);
-          tfIdfVector[i] = tfIdf;
-        } else {
-          tfIdfVector[i] = 0d;
+          tfIdfVector[i] = tfIdf(n, termFreq, docFreq);
         }
         i++;
       }
@@ -70,39 +78,186 @@ public class VectorizeUtils {
     return tfIdfVector;
   }
 
-  public static INDArray toDenseAverageTFIDFVector(Terms docTerms, double n, Word2Vec word2Vec) throws IOException {
+  /**
+   * create a sparse <code>Double</code> vector for the terms of a query, positioned like the vectors of
+   * {@link #toSparseTFIDFDoubleArray(Terms, Terms, double)}.
+   * Legacy dense helper: it allocates and walks the whole vocabulary of the field, O(V) per query, use
+   * {@link #toSparseTFIDFVector(Collection, TermOrdinals, double)} on a search path
+   *
+   * @param queryTerms the terms of the query
+   * @param fieldTerms field term vectors
+   * @return a TF-IDF sparse vector, using the term frequency of each term in the whole field
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static double[] toSparseTFIDFDoubleArray(Collection<String> queryTerms, Terms fieldTerms, double n) throws IOException {
+    double[] tfIdfVector = new double[(int) fieldTerms.size()];
+    TreeSet<BytesRef> sortedTerms = new TreeSet<>();
+    for (String queryTerm : queryTerms) {
+      sortedTerms.add(new BytesRef(queryTerm));
+    }
+    TermsEnum fieldTermsEnum = fieldTerms.iterator();
+    int i = 0;
+    BytesRef term;
+    while (!sortedTerms.isEmpty() && (term = fieldTermsEnum.next()) != null) {
+      while (!sortedTerms.isEmpty() && sortedTerms.first().compareTo(term) < 0) {
+        sortedTerms.pollFirst();
+      }
+      if (!sortedTerms.isEmpty() && sortedTerms.first().bytesEquals(term)) {
+        tfIdfVector[i] = tfIdf(n, fieldTermsEnum.totalTermFreq(), fieldTermsEnum.docFreq());
+        sortedTerms.pollFirst();
+      }
+      i++;
+    }
+    return tfIdfVector;
+  }
+
+  /**
+   * create a {@link SparseVector} given a doc term vector using TF-IDF, with the doc frequencies of the whole field.
+   * Only the terms of the document are visited, each one located with a binary search above the previous one
+   *
+   * @param docTerms term vectors for a given document
+   * @param ordinals the terms of the field
+   * @return a TF-IDF sparse vector, weights at the positions of {@link #toSparseTFIDFDoubleArray(Terms, Terms, double)}
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static SparseVector toSparseTFIDFVector(Terms docTerms, TermOrdinals ordinals, double n) throws IOException {
+    if (docTerms == null) {
+      return new SparseVector.SortedBuilder(0).build();
+    }
+    SparseVector.SortedBuilder builder = new SparseVector.SortedBuilder((int) docTerms.size());
+    TermsEnum docTermsEnum = docTerms.iterator();
+    int from = 0;
+    BytesRef term;
+    while ((term = docTermsEnum.next()) != null) {
+      int ord = ordinals.ord(term, from);
+      if (ord != -1) {
+        builder.add(ord, (float) tfIdf(n, docTermsEnum.totalTermFreq(), ordinals.docFreq(ord)));
+        from = ord + 1;
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * create a {@link SparseVector} for the terms of a query, like
+   * {@link #toSparseTFIDFDoubleArray(Collection, Terms, double)}: each distinct term once, weighted with its frequency
+   * in the whole field
+   *
+   * @param queryTerms the terms of the query, terms the field does not contain are skipped
+   * @param ordinals   the terms of the field
+   * @return a TF-IDF sparse vector
+   */
+  public static SparseVector toSparseTFIDFVector(Collection<String> queryTerms, TermOrdinals ordinals, double n) {
+    SparseVector.Builder builder = new SparseVector.Builder();
+    for (String queryTerm : queryTerms) {
+      int ord = ordinals.ord(new BytesRef(queryTerm));
+      if (ord != -1) {
+        builder.add(ord, (float) tfIdf(n, ordinals.totalTermFreq(ord), ordinals.docFreq(ord)));
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * create a dense TF-IDF averaged vector, with the doc frequencies of the whole field instead of the ones of the
+   * document term vectors (always 1)
+   *
+   * @param docTerms   term vectors for a given document
+   * @param fieldTerms terms of the field in the index
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static INDArray toDenseAverageTFIDFVector(Terms docTerms, Terms fieldTerms, double n, Word2Vec word2Vec) throws IOException {
     INDArray vector = Nd4j.zeros(word2Vec.getLayerSize());
     if (docTerms != null) {
-      TermsEnum docTermsEnum = docTerms.iterator();
-      BytesRef term;
-      while ((term = docTermsEnum.next()) != null) {
-        long termFreq = docTermsEnum.totalTermFreq();
-        int docFreq = docTermsEnum.docFreq();
-        double tfIdf = tfIdf(n, termFreq, docFreq);
-        INDArray wordVector = word2Vec.getLookupTable().vector(term.utf8ToString()).div(tfIdf);
-        vector.addi(wordVector);
-      }
+      mergeJoin(docTerms.iterator(), fieldTerms.iterator(), (term, docTermsEnum, fieldTermsEnum) -> {
+        INDArray wordVector = word2Vec.getLookupTable().vector(term.utf8ToString());
+        if (wordVector != null) {
+          vector.addi(wordVector.div(tfIdf(n, docTermsEnum.totalTermFreq(), fieldTermsEnum.docFreq())));
+        }
+      });
     }
     return vector;
   }
 
-  public static INDArray toDenseAverageVector(Terms docTerms, double n, Word2Vec word2Vec, WordEmbeddingsSimilarity.Smoothing smoothing) throws IOException {
-    INDArray documentVector = Nd4j.zeros(word2Vec.getLayerSize());
+  /**
+   * create a dense averaged vector, each word vector divided by the smoothing of its term; allocation free: the
+   * terms are looked up by their bytes and their vectors summed straight into the given buffer
+   *
+   * @param into buffer of {@link EmbeddingLookup#dimension()} floats, cleared first
+   * @return into
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static float[] toDenseAverageVector(Terms docTerms, double n, EmbeddingLookup embeddings,
+                                             WordEmbeddingsSimilarity.Smoothing smoothing, float[] into) throws IOException {
+    Arrays.fill(into, 0f);
     if (docTerms != null) {
       TermsEnum docTermsEnum = docTerms.iterator();
       BytesRef term;
       while ((term = docTermsEnum.next()) != null) {
-        INDArray wordVector = word2Vec.getLookupTable().vector(term.utf8ToString());
-        if (wordVector != null) {
-          smoothDocVector(docTerms, n, smoothing, documentVector, docTermsEnum, wordVector);
+        int id = embeddings.id(term);
+        if (id != -1) {
+          embeddings.addTo(id, (float) (1 / smooth(docTerms, n, smoothing, docTermsEnum)), into);
+        }
+      }
+    }
+    return into;
+  }
+
+  /**
+   * allocation free {@link #toDenseAverageVector(Terms, Word2Vec)}, the mean of the vectors of the terms
+   *
+   * @param into buffer of {@link EmbeddingLookup#dimension()} floats, cleared first
+   * @return into, or null if none of the terms has a vector
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static float[] toDenseMeanVector(Terms terms, EmbeddingLookup embeddings, float[] into) throws IOException {
+    Arrays.fill(into, 0f);
+    int count = 0;
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator();
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        int id = embeddings.id(term);
+        if (id != -1) {
+          embeddings.addTo(id, 1f, into);
+          count++;
         }
       }
     }
-    return documentVector;
+    return mean(into, count);
+  }
+
+  /**
+   * the mean of the vectors of the words, like {@link Word2Vec#getWordVectorsMean(Collection)}
+   *
+   * @param into buffer of {@link EmbeddingLookup#dimension()} floats, cleared first
+   * @return into, or null if none of the words has a vector
+   */
+  public static float[] toDenseMeanVector(Collection<String> words, EmbeddingLookup embeddings, float[] into) {
+    Arrays.fill(into, 0f);
+    int count = 0;
+    for (String word : words) {
+      int id = embeddings.id(word);
+      if (id != -1) {
+        embeddings.addTo(id, 1f, into);
+        count++;
+      }
+    }
+    return mean(into, count);
+  }
+
+  private static float[] mean(float[] sum, int count) {
+    if (count == 0) {
+      return null;
+    }
+    for (int i = 0; i < sum.length; i++) {
+      sum[i] /= count;
+    }
+    return sum;
   }
 
-  private static void smoothDocVector(Terms docTerms, double n, WordEmbeddingsSimilarity.Smoothing smoothing,
-                                      INDArray documentVector, TermsEnum docTermsEnum, INDArray wordVector) throws IOException {
+  private static double smooth(Terms docTerms, double n, WordEmbeddingsSimilarity.Smoothing smoothing,
+                               TermsEnum docTermsEnum) throws IOException {
     double smooth;
     switch (smoothing) {
       case MEAN:
@@ -120,7 +275,7 @@ public class VectorizeUtils {
       default:
         smooth = VectorizeUtils.tfIdf(n, docTermsEnum.totalTermFreq(), docTermsEnum.docFreq());
     }
-    documentVector.addi(wordVector.div(smooth));
+    return smooth;
   }
 
   public static INDArray toDenseAverageVector(Terms terms, Word2Vec word2Vec) throws IOException {
@@ -129,19 +284,96 @@ public class VectorizeUtils {
       TermsEnum docTermsEnum = terms.iterator();
       BytesRef term;
       while ((term = docTermsEnum.next()) != null) {
-        TermsEnum.SeekStatus seekStatus = docTermsEnum.seekCeil(term);
-        if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-          docTermsEnum = terms.iterator();
-        }
-        if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
-          indArrayCollection.add(term.utf8ToString());
-        }
-
+        indArrayCollection.add(term.utf8ToString());
       }
     }
     return word2Vec.getWordVectorsMean(indArrayCollection);
   }
 
+  /**
+   * called by {@link #mergeJoin} for every term found in both enums
+   */
+  public interface TermVisitor {
+    void visit(BytesRef term, TermsEnum left, TermsEnum right) throws IOException;
+  }
+
+  /**
+   * visits the terms two sorted enums have in common. The enums leapfrog each other with seekCeil, so the cost
+   * grows with the smaller of the two (e.g. a document term vector against the terms of the whole field), not
+   * with the size of the field vocabulary
+   *
+   * @param left  usually the smaller enum, e.g. a document term vector
+   * @param right e.g. the terms of the field
+   * @throws IOException in case accessing the underlying index fails
+   */
+  public static void mergeJoin(TermsEnum left, TermsEnum right, TermVisitor visitor) throws IOException {
+    BytesRef term = left.next();
+    while (term != null) {
+      TermsEnum.SeekStatus seekStatus = right.seekCeil(term);
+      if (seekStatus == TermsEnum.SeekStatus.END) {
+        return;
+      }
+      if (seekStatus == TermsEnum.SeekStatus.FOUND) {
+        visitor.visit(term, left, right);
+        term = left.next();
+        continue;
+      }
+      // right is on the next larger term, move left up to it
+      seekStatus = left.seekCeil(right.term());
+      if (seekStatus == TermsEnum.SeekStatus.END) {
+        return;
+      }
+      term = left.term();
+      if (seekStatus == TermsEnum.SeekStatus.FOUND) {
+        visitor.visit(term, left, right);
+        term = left.next();
+      }
+    }
+  }
+
+  /**
+   * index wide statistics of the terms of one field. Every term is looked up once with {@link TermContext#build},
+   * which seeks each segment exactly, and the result is reused by later lookups
+   */
+  public static final class TermContextCache {
+    private final IndexReaderContext context;
+    private final String field;
+    private final Map<String, TermContext> contexts = new HashMap<>();
+
+    public TermContextCache(IndexReader reader, String field) {
+      this.context = reader.getContext();
+      this.field = field;
+    }
+
+    public TermContext get(String term) throws IOException {
+      TermContext termContext = contexts.get(term);
+      if (termContext == null) {
+        termContext = TermContext.build(context, new Term(field, term));
+        contexts.put(term, termContext);
+      }
+      return termContext;
+    }
+
+    public int docFreq(String term) throws IOException {
+      return get(term).docFreq();
+    }
+
+    public long totalTermFreq(String term) throws IOException {
+      return get(term).totalTermFreq();
+    }
+
+    /**
+     * @return the TF-IDF weight of the term in the field, or 0 if the field does not contain it
+     */
+    public double tfIdf(String term) throws IOException {
+      TermContext termContext = get(term);
+      if (termContext.docFreq() == 0) {
+        return 0;
+      }
+      return VectorizeUtils.tfIdf(context.reader().numDocs(), termContext.totalTermFreq(), termContext.docFreq());
+    }
+  }
+
   public static double tfIdf(double n, double termFreq, double docFreq) {
     //weight(term) = (1+log(tf(term)))*log(N/df(term))
     return 1 + Math.log(termFreq) * Math.log(n / docFreq);
@@ -156,9 +388,28 @@ public class VectorizeUtils {
       normA += Math.pow(vectorA[i], 2);
       normB += Math.pow(vectorB[i], 2);
     }
+    if (normA == 0 || normB == 0) {
+      // a zero vector, e.g. a document without any known word, is similar to nothing
+      return 0;
+    }
     return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
   }
 
+  public static float cosineSimilarity(float[] vectorA, float[] vectorB) {
+    float dotProduct = 0f;
+    float normA = 0f;
+    float normB = 0f;
+    for (int i = 0; i < vectorA.length; i++) {
+      dotProduct += vectorA[i] * vectorB[i];
+      normA += vectorA[i] * vectorA[i];
+      normB += vectorB[i] * vectorB[i];
+    }
+    if (normA == 0 || normB == 0) {
+      return 0;
+    }
+    return (float) (dotProduct / (Math.sqrt(normA) * Math.sqrt(normB)));
+  }
+
   public static INDArray averageWordVectors(Collection<String> words, Word2Vec word2Vec) {
     INDArray denseDocumentVector;
     try {
@@ -6,18 +6,12 @@ import java.util.Arrays;
 import org.apache.lucene.index.FieldInvertState;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.CollectionStatistics;
 import org.apache.lucene.search.TermStatistics;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.SmallFloat;
 import org.deeplearning4j.models.word2vec.Word2Vec;
-import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.ops.transforms.Transforms;
 
 /**
  * A {@link Similarity} based on document embeddings generated by averaging {@link Word2Vec} word vectors.
@@ -32,14 +26,31 @@ public class WordEmbeddingsSimilarity extends Similarity {
     TF_IDF
   }
 
-  private final Word2Vec word2Vec;
+  private final EmbeddingLookup embeddings;
   private final String fieldName;
   private final Smoothing smoothing;
+  private final DocVectorStore docVectors;
 
   public WordEmbeddingsSimilarity(Word2Vec word2Vec, String fieldName, Smoothing smoothing) {
-    this.word2Vec = word2Vec;
+    this(word2Vec, fieldName, smoothing, null);
+  }
+
+  /**
+   * @param docVectors document vectors precomputed per segment, scoring then reads them instead of vectorizing
+   *                   the term vector of every hit. Must use the same model and field, may be null
+   */
+  public WordEmbeddingsSimilarity(Word2Vec word2Vec, String fieldName, Smoothing smoothing, DocVectorStore docVectors) {
+    this(EmbeddingTable.of(word2Vec), fieldName, smoothing, docVectors);
+  }
+
+  /**
+   * @param embeddings the word vectors, shared with other users of the same model
+   */
+  public WordEmbeddingsSimilarity(EmbeddingLookup embeddings, String fieldName, Smoothing smoothing, DocVectorStore docVectors) {
+    this.embeddings = embeddings;
     this.fieldName = fieldName;
     this.smoothing = smoothing;
+    this.docVectors = docVectors;
   }
 
   @Override
@@ -67,13 +78,17 @@ public class WordEmbeddingsSimilarity extends Similarity {
   private class EmbeddingsSimScorer extends SimScorer {
     private final EmbeddingsSimWeight weight;
     private final LeafReaderContext context;
-    private Terms fieldTerms;
-    private LeafReader reader;
+    private final LeafReader reader;
+    private final DocVectorStore.LeafVectors leafVectors;
+    // reused for every document, a scorer is only used by one thread
+    private final float[] documentVector;
 
-    public EmbeddingsSimScorer(SimWeight weight, LeafReaderContext context) {
+    public EmbeddingsSimScorer(SimWeight weight, LeafReaderContext context) throws IOException {
       this.weight = (EmbeddingsSimWeight) weight;
       this.context = context;
       this.reader = context.reader();
+      this.leafVectors = (docVectors != null) ? docVectors.vectors(reader) : null;
+      this.documentVector = (leafVectors == null) ? new float[embeddings.dimension()] : null;
     }
 
     @Override
@@ -81,72 +96,17 @@ public class WordEmbeddingsSimilarity extends Similarity {
       return "EmbeddingsSimScorer{" +
           "weight=" + weight +
           ", context=" + context +
-          ", fieldTerms=" + fieldTerms +
           ", reader=" + reader +
           '}';
     }
 
     @Override
     public float score(int doc, float freq) throws IOException {
-      INDArray denseQueryVector = getQueryVector();
-      INDArray denseDocumentVector = VectorizeUtils.toDenseAverageVector(
-          reader.getTermVector(doc, fieldName), reader.numDocs(), word2Vec, smoothing);
-      return (float) Transforms.cosineSim(denseQueryVector, denseDocumentVector);
-    }
-
-    private INDArray getQueryVector() throws IOException {
-      INDArray denseQueryVector = Nd4j.zeros(word2Vec.getLayerSize());
-      String[] queryTerms = new String[weight.termStats.length];
-      int i = 0;
-      for (TermStatistics termStats : weight.termStats) {
-        queryTerms[i] = termStats.term().utf8ToString();
-        i++;
-      }
-
-      if (fieldTerms == null) {
-        fieldTerms = MultiFields.getTerms(reader, fieldName);
-      }
-
-      for (String queryTerm : queryTerms) {
-        TermsEnum iterator = fieldTerms.iterator();
-        BytesRef term;
-        while ((term = iterator.next()) != null) {
-          TermsEnum.SeekStatus seekStatus = iterator.seekCeil(term);
-          if (seekStatus.equals(TermsEnum.SeekStatus.END)) {
-            iterator = fieldTerms.iterator();
-          }
-          if (seekStatus.equals(TermsEnum.SeekStatus.FOUND)) {
-            String string = term.utf8ToString();
-            if (string.equals(queryTerm)) {
-              INDArray vector = word2Vec.getLookupTable().vector(queryTerm);
-              if (vector != null) {
-                double tf = iterator.totalTermFreq();
-                double docFreq = iterator.docFreq();
-                double smooth;
-                switch (smoothing) {
-                  case MEAN:
-                    smooth = queryTerms.length;
-                    break;
-                  case TF:
-                    smooth = tf;
-                    break;
-                  case IDF:
-                    smooth = docFreq;
-                    break;
-                  case TF_IDF:
-                    smooth = VectorizeUtils.tfIdf(reader.numDocs(), tf, docFreq);
-                    break;
-                  default:
-                    smooth = VectorizeUtils.tfIdf(reader.numDocs(), tf, docFreq);
-                }
-                denseQueryVector.addi(vector.div(smooth));
-              }
-              break;
-            }
-          }
-        }
+      if (leafVectors != null) {
+        return leafVectors.dot(weight.variant, doc, weight.unitQueryVector);
       }
-      return denseQueryVector;
+      VectorizeUtils.toDenseAverageVector(reader.getTermVector(doc, fieldName), reader.maxDoc(), embeddings, smoothing, documentVector);
+      return VectorizeUtils.cosineSimilarity(weight.queryVector, documentVector);
     }
 
     @Override
@@ -160,15 +120,59 @@ public class WordEmbeddingsSimilarity extends Similarity {
     }
   }
 
+  /**
+   * Holds the query vector, computed once per query from the index-wide term statistics. It is shared by the
+   * scorers of all segments and searcher threads and never modified after construction.
+   */
   private class EmbeddingsSimWeight extends SimWeight {
     private final float boost;
     private final CollectionStatistics collectionStats;
     private final TermStatistics[] termStats;
+    private final float[] queryVector;
+    private final DocVectorStore.Variant variant;
+    private final float[] unitQueryVector;
 
     public EmbeddingsSimWeight(float boost, CollectionStatistics collectionStats, TermStatistics[] termStats) {
       this.boost = boost;
       this.collectionStats = collectionStats;
       this.termStats = termStats;
+      this.queryVector = toQueryVector();
+      this.variant = DocVectorStore.Variant.of(smoothing);
+      this.unitQueryVector = (docVectors != null) ? DocVectorStore.normalize(queryVector.clone()) : null;
+    }
+
+    private float[] toQueryVector() {
+      float[] denseQueryVector = new float[embeddings.dimension()];
+      for (TermStatistics stats : termStats) {
+        if (stats.docFreq() == 0) {
+          // not in the field
+          continue;
+        }
+        int id = embeddings.id(stats.term());
+        if (id != -1) {
+          double tf = stats.totalTermFreq();
+          double docFreq = stats.docFreq();
+          double smooth;
+          switch (smoothing) {
+            case MEAN:
+              smooth = termStats.length;
+              break;
+            case TF:
+              smooth = tf;
+              break;
+            case IDF:
+              smooth = docFreq;
+              break;
+            case TF_IDF:
+              smooth = VectorizeUtils.tfIdf(collectionStats.maxDoc(), tf, docFreq);
+              break;
+            default:
+              smooth = VectorizeUtils.tfIdf(collectionStats.maxDoc(), tf, docFreq);
+          }
+          embeddings.addTo(id, (float) (1 / smooth), denseQueryVector);
+        }
+      }
+      return denseQueryVector;
     }
 
     @Override